@@ -0,0 +1,288 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Bounding volume hierarchy -- a binary tree of axis-aligned bounding boxes over the triangles of a mesh
+// Building it reorders the mesh's triangles, so that every node covers a contiguous range of them, and numbers the
+// vertices in the order of their first use, so that the vertices of a leaf form a few runs of consecutive indices
+// Leaves come in depth-first order, so the runs of the leaves of any subtree are consecutive too
+public class Bvh {
+    private static final int LEAF_SIZE = 32;
+
+    // Nodes are stored in depth-first order: the first child of a node is the next node
+    private int nodeCount = 0;
+    private double[] bounds = new double[6 * 16]; // minX, minY, minZ, maxX, maxY, maxZ of every node
+    private int[] triangleStarts = new int[16];
+    private int[] triangleEnds = new int[16];
+    private int[] runStarts = new int[16]; // Range of the vertex runs of every node
+    private int[] runEnds = new int[16];
+    private int runCount = 0;
+    private int[] vertexRunStarts = new int[16]; // Runs [start, end) of the vertices used by the leaves
+    private int[] vertexRunEnds = new int[16];
+    private int[] secondChildren = new int[16]; // -1 for leaves
+
+    private Bvh() {
+    }
+
+    // Reorders the triangles and vertices of the mesh
+    public static Bvh build(Mesh mesh) {
+        Bvh bvh = new Bvh();
+        int triangleCount = mesh.getTriangleCount();
+        if (triangleCount == 0) {
+            return bvh;
+        }
+
+        double[] positions = mesh.getPositions();
+        int[] indices = mesh.getIndices();
+        double[] centroids = new double[3 * triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            for (int c = 0; c < 3; c++) {
+                centroids[3 * t + c] = (positions[3 * indices[3 * t] + c] + positions[3 * indices[3 * t + 1] + c] + positions[3 * indices[3 * t + 2] + c]) / 3.0;
+            }
+        }
+
+        int[] order = new int[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            order[t] = t;
+        }
+        bvh.build(order, centroids, 0, triangleCount);
+
+        mesh.reorder(order);
+        bvh.computeBounds(mesh);
+        return bvh;
+    }
+
+    // Splits the triangles [start, end) of order at the median centroid along the longest axis of the centroids
+    private int build(int[] order, double[] centroids, int start, int end) {
+        int node = addNode(start, end);
+        if (end - start <= LEAF_SIZE) {
+            secondChildren[node] = -1;
+            return node;
+        }
+
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = start; i < end; i++) {
+            for (int c = 0; c < 3; c++) {
+                min[c] = Math.min(min[c], centroids[3 * order[i] + c]);
+                max[c] = Math.max(max[c], centroids[3 * order[i] + c]);
+            }
+        }
+        int axis = 0;
+        for (int c = 1; c < 3; c++) {
+            if (max[c] - min[c] > max[axis] - min[axis]) {
+                axis = c;
+            }
+        }
+
+        int mid = (start + end) >>> 1;
+        select(order, centroids, axis, start, end, mid);
+        build(order, centroids, start, mid);
+        // Building the children may reallocate the arrays
+        int secondChild = build(order, centroids, mid, end);
+        secondChildren[node] = secondChild;
+        return node;
+    }
+
+    // Quickselect: moves the triangles of [start, end) so that the one at k has the k-th smallest centroid on the axis,
+    // the ones before it are not greater and the ones after it are not smaller
+    private static void select(int[] order, double[] centroids, int axis, int start, int end, int k) {
+        int left = start;
+        int right = end - 1;
+        while (left < right) {
+            double pivot = centroids[3 * order[(left + right) >>> 1] + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (centroids[3 * order[i] + axis] < pivot) {
+                    i++;
+                }
+                while (centroids[3 * order[j] + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int addNode(int triangleStart, int triangleEnd) {
+        if (nodeCount == triangleStarts.length) {
+            int capacity = 2 * nodeCount;
+            bounds = Arrays.copyOf(bounds, 6 * capacity);
+            triangleStarts = Arrays.copyOf(triangleStarts, capacity);
+            triangleEnds = Arrays.copyOf(triangleEnds, capacity);
+            runStarts = Arrays.copyOf(runStarts, capacity);
+            runEnds = Arrays.copyOf(runEnds, capacity);
+            secondChildren = Arrays.copyOf(secondChildren, capacity);
+        }
+        triangleStarts[nodeCount] = triangleStart;
+        triangleEnds[nodeCount] = triangleEnd;
+        return nodeCount++;
+    }
+
+    // Children always come after their parent, so going backwards every node is computed after its children
+    private void computeBounds(Mesh mesh) {
+        double[] positions = mesh.getPositions();
+        int[] indices = mesh.getIndices();
+
+        // Runs are added leaf by leaf in depth-first order
+        int[] leafVertices = new int[3 * LEAF_SIZE];
+        for (int node = 0; node < nodeCount; node++) {
+            if (secondChildren[node] == -1) {
+                int count = 0;
+                for (int i = 3 * triangleStarts[node]; i < 3 * triangleEnds[node]; i++) {
+                    leafVertices[count++] = indices[i];
+                }
+                Arrays.sort(leafVertices, 0, count);
+                runStarts[node] = runCount;
+                for (int i = 0; i < count; i++) {
+                    if (runCount > runStarts[node] && leafVertices[i] <= vertexRunEnds[runCount - 1]) {
+                        vertexRunEnds[runCount - 1] = Math.max(vertexRunEnds[runCount - 1], leafVertices[i] + 1);
+                    } else {
+                        addRun(leafVertices[i], leafVertices[i] + 1);
+                    }
+                }
+                runEnds[node] = runCount;
+            }
+        }
+
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int b = 6 * node;
+            if (secondChildren[node] == -1) {
+                Arrays.fill(bounds, b, b + 3, Double.POSITIVE_INFINITY);
+                Arrays.fill(bounds, b + 3, b + 6, Double.NEGATIVE_INFINITY);
+                for (int i = 3 * triangleStarts[node]; i < 3 * triangleEnds[node]; i++) {
+                    int v = indices[i];
+                    for (int c = 0; c < 3; c++) {
+                        bounds[b + c] = Math.min(bounds[b + c], positions[3 * v + c]);
+                        bounds[b + 3 + c] = Math.max(bounds[b + 3 + c], positions[3 * v + c]);
+                    }
+                }
+            } else {
+                int first = 6 * (node + 1);
+                int second = 6 * secondChildren[node];
+                for (int c = 0; c < 3; c++) {
+                    bounds[b + c] = Math.min(bounds[first + c], bounds[second + c]);
+                    bounds[b + 3 + c] = Math.max(bounds[first + 3 + c], bounds[second + 3 + c]);
+                }
+                runStarts[node] = runStarts[node + 1];
+                runEnds[node] = runEnds[secondChildren[node]];
+            }
+        }
+    }
+
+    private void addRun(int start, int end) {
+        if (runCount == vertexRunStarts.length) {
+            vertexRunStarts = Arrays.copyOf(vertexRunStarts, 2 * runCount);
+            vertexRunEnds = Arrays.copyOf(vertexRunEnds, 2 * runCount);
+        }
+        vertexRunStarts[runCount] = start;
+        vertexRunEnds[runCount] = end;
+        runCount++;
+    }
+
+    // Collects the triangles and vertices of the nodes whose boxes are not completely outside any of the planes
+    // Planes are given as a, b, c, d of ax + by + cz + d >= 0 on the inner side; returns the number of nodes visited
+    // Also skips the nodes whose boxes, projected with the matrix, are hidden in the occlusion buffer (if not null)
+    public int cull(double[] planes, int planeCount, OcclusionBuffer occlusion, Matrix worldViewProjection,
+                    IndexRanges triangles, IndexRanges vertices) {
+        triangles.clear();
+        vertices.clear();
+        if (nodeCount == 0) {
+            return 0;
+        }
+        int visited = cull(0, planes, planeCount, occlusion, worldViewProjection, triangles, vertices);
+        vertices.sortAndMerge();
+        return visited;
+    }
+
+    private int cull(int node, double[] planes, int planeCount, OcclusionBuffer occlusion, Matrix worldViewProjection,
+                     IndexRanges triangles, IndexRanges vertices) {
+        int b = 6 * node;
+        boolean inside = true;
+        for (int p = 0; p < planeCount; p++) {
+            double a = planes[4 * p];
+            double bb = planes[4 * p + 1];
+            double c = planes[4 * p + 2];
+            double d = planes[4 * p + 3];
+
+            // Corner of the box furthest along the plane's normal and the one opposite to it
+            double far = a * bounds[a > 0 ? b + 3 : b] + bb * bounds[bb > 0 ? b + 4 : b + 1] + c * bounds[c > 0 ? b + 5 : b + 2] + d;
+            if (far < 0.0) {
+                // Whole subtree is outside
+                return 1;
+            }
+            double near = a * bounds[a > 0 ? b : b + 3] + bb * bounds[bb > 0 ? b + 1 : b + 4] + c * bounds[c > 0 ? b + 2 : b + 5] + d;
+            if (near < 0.0) {
+                inside = false;
+            }
+        }
+
+        if (occlusion != null && occlusion.isOccluded(worldViewProjection,
+                bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5])) {
+            return 1;
+        }
+
+        // With occlusion culling the children of nodes inside the frustum are still tested, they may be hidden
+        if (secondChildren[node] == -1 || inside && occlusion == null) {
+            triangles.add(triangleStarts[node], triangleEnds[node]);
+            for (int run = runStarts[node]; run < runEnds[node]; run++) {
+                vertices.add(vertexRunStarts[run], vertexRunEnds[run]);
+            }
+            return 1;
+        }
+        return 1 + cull(node + 1, planes, planeCount, occlusion, worldViewProjection, triangles, vertices)
+                + cull(secondChildren[node], planes, planeCount, occlusion, worldViewProjection, triangles, vertices);
+    }
+
+    // Binary form used by MeshCache
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(nodeCount);
+        MeshCache.writeDoubles(out, bounds, 6 * nodeCount);
+        MeshCache.writeInts(out, triangleStarts, nodeCount);
+        MeshCache.writeInts(out, triangleEnds, nodeCount);
+        MeshCache.writeInts(out, runStarts, nodeCount);
+        MeshCache.writeInts(out, runEnds, nodeCount);
+        MeshCache.writeInts(out, vertexRunStarts, runCount);
+        MeshCache.writeInts(out, vertexRunEnds, runCount);
+        MeshCache.writeInts(out, secondChildren, nodeCount);
+    }
+
+    static Bvh read(ByteBuffer in) {
+        Bvh bvh = new Bvh();
+        bvh.nodeCount = in.getInt();
+        bvh.bounds = MeshCache.readDoubles(in);
+        bvh.triangleStarts = MeshCache.readInts(in);
+        bvh.triangleEnds = MeshCache.readInts(in);
+        bvh.runStarts = MeshCache.readInts(in);
+        bvh.runEnds = MeshCache.readInts(in);
+        bvh.vertexRunStarts = MeshCache.readInts(in);
+        bvh.vertexRunEnds = MeshCache.readInts(in);
+        bvh.runCount = bvh.vertexRunStarts.length;
+        bvh.secondChildren = MeshCache.readInts(in);
+        return bvh;
+    }
+
+    public long getMemorySize() {
+        return 8L * bounds.length + 4L * (triangleStarts.length + triangleEnds.length + runStarts.length
+                + runEnds.length + vertexRunStarts.length + vertexRunEnds.length + secondChildren.length);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+}
@@ -0,0 +1,111 @@
+public class Camera {
+    private Vec3D position = new Vec3D(0, 0, 0);
+    private final Vec3D lookDirection = new Vec3D(0, 0, 1); // Unit vector that points the direction that camera is turned into
+    private final Vec3D upDirection = new Vec3D(0, 1, 0);
+    private double rotX = 0.0;
+    private double yaw = 0.0; // Rotation (radians) in the Y axis
+    private double rotZ = 0.0;
+    private double fov = 70.0;
+
+    // Preallocated buffers, so that computing the view matrix and moving the camera does not allocate
+    private final Vec3D upVec = new Vec3D();
+    private final Vec3D targetVec = new Vec3D();
+    private final Vec3D velocityVec = new Vec3D();
+    private final Matrix cameraRot = new Matrix();
+    private final Matrix cameraRotXMatrix = new Matrix();
+    private final Matrix cameraRotYMatrix = new Matrix();
+    private final Matrix cameraRotZMatrix = new Matrix();
+    private final Matrix cameraMatrix = new Matrix();
+
+    public Matrix makeViewMatrix() {
+        return makeViewMatrix(new Matrix());
+    }
+
+    public Matrix makeViewMatrix(Matrix viewMatrix) {
+        upVec.set(0, 1, 0, 1);
+
+        // Target point that camera should look at
+        targetVec.set(0, 0, 1, 1);
+
+        Matrix.makeRotationX(-rotX / 100, cameraRotXMatrix);
+        Matrix.makeRotationY(-yaw / 100, cameraRotYMatrix);
+        Matrix.makeRotationZ(-rotZ / 100, cameraRotZMatrix);
+
+        Matrix.mult(cameraRotXMatrix, cameraRotYMatrix, cameraRot);
+
+        // Unit vector rotated in Y axis by yaw radians around (0, 0, 0)
+        Vec3D.multMatrixVector(cameraRot, targetVec, lookDirection);
+        Vec3D.multMatrixVector(cameraRotZMatrix, upVec, upDirection);
+
+        Vec3D.add(position, lookDirection, targetVec);
+
+        Matrix.makePointAtMatrix(position, targetVec, upDirection, cameraMatrix);
+        return Matrix.quickInverse(cameraMatrix, viewMatrix);
+    }
+
+    public void moveForward(double step) {
+        Vec3D.mult(lookDirection, step, velocityVec); // Velocity vector forward
+        Vec3D.add(position, velocityVec, position);
+    }
+
+    public void moveRight(double step) {
+        Vec3D.crossProduct(upDirection, lookDirection, velocityVec);
+        Vec3D.normalise(velocityVec, velocityVec);
+        Vec3D.mult(velocityVec, step, velocityVec); // Velocity vector right
+        Vec3D.add(position, velocityVec, position);
+    }
+
+    public void moveUp(double step) {
+        Vec3D.normalise(upDirection, velocityVec);
+        Vec3D.mult(velocityVec, step, velocityVec);
+        Vec3D.add(position, velocityVec, position);
+    }
+
+    public Vec3D getPosition() {
+        return position;
+    }
+
+    public void setPosition(Vec3D position) {
+        this.position = position;
+    }
+
+    public Vec3D getLookDirection() {
+        return lookDirection;
+    }
+
+    public Vec3D getUpDirection() {
+        return upDirection;
+    }
+
+    public double getRotX() {
+        return rotX;
+    }
+
+    public void setRotX(double rotX) {
+        this.rotX = rotX;
+    }
+
+    public double getYaw() {
+        return yaw;
+    }
+
+    public void setYaw(double yaw) {
+        this.yaw = yaw;
+    }
+
+    public double getRotZ() {
+        return rotZ;
+    }
+
+    public void setRotZ(double rotZ) {
+        this.rotZ = rotZ;
+    }
+
+    public double getFov() {
+        return fov;
+    }
+
+    public void setFov(double fov) {
+        this.fov = fov;
+    }
+}
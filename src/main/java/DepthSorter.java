@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+// Back-to-front order of triangles for the painter's algorithm, sorted by a depth key computed once per triangle
+// Entries pack the key and the triangle index into a long, so that primitive comparisons order equal depths by index
+// and the result does not depend on the method used: the previous frame's order fixed up by insertion sort while the
+// view barely changes, an LSD radix sort on the keys otherwise
+public class DepthSorter {
+    private static final int MAX_SHIFTS_PER_ENTRY = 4; // Insertion sort gives up after that many moves on average
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int DIGITS = 32 / RADIX_BITS;
+
+    private long[] entries = new long[0]; // Sort key << 32 | triangle index
+    private long[] scratch = new long[0];
+    private int[] order = new int[0];
+    private final int[] counts = new int[DIGITS * RADIX];
+    private int previousCount = -1;
+
+    // Returns the indices of the triangles, deepest first; valid until the next call
+    public int[] sort(float[] depths, int count) {
+        if (entries.length < count) {
+            int capacity = Math.max(count, 2 * entries.length);
+            entries = new long[capacity];
+            scratch = new long[capacity];
+            order = Arrays.copyOf(order, capacity);
+        }
+
+        // The same number of triangles as in the previous frame most likely means the same triangles
+        boolean sorted = false;
+        if (count == previousCount) {
+            for (int i = 0; i < count; i++) {
+                entries[i] = entry(depths, order[i]);
+            }
+            sorted = insertionSort(count);
+        }
+        if (!sorted) {
+            for (int i = 0; i < count; i++) {
+                entries[i] = entry(depths, i);
+            }
+            radixSort(count);
+        }
+
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) entries[i];
+        }
+        previousCount = count;
+        return order;
+    }
+
+    private static long entry(float[] depths, int i) {
+        int bits = Float.floatToIntBits(depths[i]);
+        // Signed ints ordered like the floats, inverted so that greater depths come first
+        int key = ~(bits ^ ((bits >> 31) & 0x7FFFFFFF));
+        return (long) key << 32 | i;
+    }
+
+    // Returns false, leaving the entries partly sorted, if the order is too far from sorted
+    private boolean insertionSort(int count) {
+        long shiftsLeft = (long) MAX_SHIFTS_PER_ENTRY * count;
+        for (int i = 1; i < count; i++) {
+            long entry = entries[i];
+            int j = i - 1;
+            while (j >= 0 && entries[j] > entry) {
+                entries[j + 1] = entries[j];
+                j--;
+                if (--shiftsLeft < 0) {
+                    return false;
+                }
+            }
+            entries[j + 1] = entry;
+        }
+        return true;
+    }
+
+    // Stable, so entries with equal keys stay in index order
+    private void radixSort(int count) {
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < count; i++) {
+            for (int d = 0; d < DIGITS; d++) {
+                counts[d * RADIX + digit(entries[i], d)]++;
+            }
+        }
+
+        long[] from = entries;
+        long[] to = scratch;
+        for (int d = 0; d < DIGITS; d++) {
+            int base = d * RADIX;
+            // A digit the same for all entries, e.g. high bits of depths in a narrow range, needs no pass
+            if (count == 0 || counts[base + digit(from[0], d)] == count) {
+                continue;
+            }
+            int offset = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                int digitCount = counts[base + digit];
+                counts[base + digit] = offset;
+                offset += digitCount;
+            }
+            for (int i = 0; i < count; i++) {
+                to[counts[base + digit(from[i], d)]++] = from[i];
+            }
+            long[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != entries) {
+            System.arraycopy(from, 0, entries, 0, count);
+        }
+    }
+
+    private static int digit(long entry, int d) {
+        // Flipping the sign bit orders the keys as unsigned numbers
+        int key = (int) (entry >>> 32) ^ 0x80000000;
+        return key >>> d * RADIX_BITS & RADIX - 1;
+    }
+}
@@ -2,24 +2,39 @@ public class Edge {
     Triangle triangle;
     Vec3D p1;
     Vec3D p2;
-    Double xIntersection;
+
+    // Edge table data -- the edge crosses scanlines yStart..yEnd and x is stepped by dxdy from one scanline to the next
+    int yStart;
+    int yEnd;
+    double x;
+    double dxdy;
+    int order; // Position in the edge table, keeps the order of edges with the same x stable
+    int triangleIndex; // Position of the triangle in the drawn frame, indexes the renderer's per-triangle data
+    Edge nextInBucket;
 
     public Edge(Triangle triangle, Vec3D p1, Vec3D p2) {
         this.triangle = triangle;
         this.p1 = p1;
         this.p2 = p2;
-    }
 
-    public Double xIntersection(int y) {
-        double minY = Math.min(p1.getY(), p2.getY());
-        double maxY = Math.max(p1.getY(), p2.getY());
+        // Scanlines strictly between the endpoints
+        Vec3D lower = p1.getY() <= p2.getY() ? p1 : p2;
+        Vec3D upper = lower == p1 ? p2 : p1;
+        yStart = (int) Math.floor(lower.getY()) + 1;
+        yEnd = (int) Math.ceil(upper.getY()) - 1;
+        dxdy = yStart <= yEnd ? (upper.getX() - lower.getX()) / (upper.getY() - lower.getY()) : 0.0;
+    }
 
-        if (y <= minY || y >= maxY) {
-            // There is no intersection
-            return null;
-        }
+    // x of the intersection with scanline y, computed from the lower endpoint, so that both edges sharing the same
+    // endpoints (in adjacent triangles) step through exactly the same values
+    public double xAt(int y) {
+        Vec3D lower = p1.getY() <= p2.getY() ? p1 : p2;
+        return lower.getX() + (y - lower.getY()) * dxdy;
+    }
 
-        return Util.scaleToRange(p1.getY(), p2.getY(), y, p1.getX(), p2.getX());
+    // Compares the current x, ties are resolved by the order in the edge table
+    public boolean isBefore(Edge e) {
+        return x < e.x || (x == e.x && order < e.order);
     }
 
     public Triangle getTriangle() {
@@ -46,11 +61,7 @@ public class Edge {
         this.p2 = p2;
     }
 
-    public Double getxIntersection() {
-        return xIntersection;
-    }
-
-    public void setxIntersection(Double xIntersection) {
-        this.xIntersection = xIntersection;
+    public double getX() {
+        return x;
     }
 }
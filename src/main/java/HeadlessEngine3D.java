@@ -0,0 +1,174 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Renders into an offscreen image without opening a window and reports frame times
+// Usage: HeadlessEngine3D [mesh file] [frames] [instances of the mesh]
+public class HeadlessEngine3D {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int WARMUP_FRAMES = 50;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String filename = args.length > 0 ? args[0] : "teapot.obj";
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int instances = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        MeshReader meshReader = new MeshReader();
+        Mesh mesh = filename.endsWith(".obj") ? meshReader.readFromObjFile(filename) : meshReader.readMeshFromFile(filename);
+        if (mesh == null) {
+            System.err.println("Cannot read mesh: " + filename);
+            System.exit(1);
+        }
+
+        System.out.println(filename + ": " + mesh.getTriangleCount() + " triangles, " + instances + " instances, " + frames + " frames, " + WIDTH + "x" + HEIGHT);
+        for (String drawingMethod : new String[]{Renderer.SCANLINE, Renderer.PAINTER, Renderer.Z_BUFFER}) {
+            benchmark(mesh, instances, drawingMethod, 1, frames);
+        }
+
+        // Scaling of the tiled rasterization from 1 to all cores
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int workers = 1; workers < cores; workers *= 2) {
+            benchmark(mesh, instances, Renderer.TILED_Z_BUFFER, workers, frames);
+        }
+        benchmark(mesh, instances, Renderer.TILED_Z_BUFFER, cores, frames);
+
+        // Geometry of the next frame produced on another thread while the current one is drawn
+        for (String drawingMethod : new String[]{Renderer.SCANLINE, Renderer.Z_BUFFER}) {
+            benchmarkPipelined(mesh, instances, drawingMethod, frames);
+        }
+    }
+
+    private static void benchmark(Mesh mesh, int instances, String drawingMethod, int workerCount, int frames) {
+        Renderer renderer = createRenderer(mesh, instances, drawingMethod);
+        renderer.setWorkerCount(workerCount);
+
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            renderFrame(renderer, graphics, i);
+        }
+
+        long[] frameTimes = new long[frames];
+        long submittedTriangles = 0;
+        long projectedTriangles = 0;
+        long visitedBvhNodes = 0;
+        long culledTriangles = 0;
+        long transformedVertices = 0;
+        long occludedNodes = 0;
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            renderFrame(renderer, graphics, i);
+            frameTimes[i] = System.nanoTime() - start;
+            submittedTriangles += renderer.getSubmittedTriangles();
+            projectedTriangles += renderer.getProjectedTriangles().size();
+            visitedBvhNodes += renderer.getVisitedBvhNodes();
+            culledTriangles += renderer.getCulledTriangles();
+            transformedVertices += renderer.getTransformedVertices();
+            occludedNodes += renderer.getOccludedNodes();
+        }
+        graphics.dispose();
+        renderer.stop();
+
+        long total = 0;
+        for (long t : frameTimes) {
+            total += t;
+        }
+        Arrays.sort(frameTimes);
+        long min = frameTimes[0];
+        long median = frameTimes[frames / 2];
+        long p99 = frameTimes[Math.min(frames - 1, (int) Math.ceil(frames * 0.99) - 1)];
+        double seconds = total / 1e9;
+
+        String label = drawingMethod.equals(Renderer.TILED_Z_BUFFER) ? drawingMethod + ", " + workerCount + " workers" : drawingMethod;
+        System.out.println(label + ": min " + Util.round(min / 1e6, 3) + " ms"
+                + ", median " + Util.round(median / 1e6, 3) + " ms"
+                + ", p99 " + Util.round(p99 / 1e6, 3) + " ms"
+                + ", " + Math.round(submittedTriangles / seconds) + " triangles/s"
+                + " (" + Math.round(projectedTriangles / seconds) + " projected triangles/s)"
+                + ", per frame: " + submittedTriangles / frames + " triangles submitted, " + visitedBvhNodes / frames + " BVH nodes visited, " + culledTriangles / frames + " triangles culled"
+                + ", " + transformedVertices / frames + " of " + (long) mesh.getVertexCount() * instances + " vertices transformed"
+                + ", " + occludedNodes / frames + " nodes occluded");
+    }
+
+    private static void benchmarkPipelined(Mesh mesh, int instances, String drawingMethod, int frames) {
+        Renderer renderer = createRenderer(mesh, instances, drawingMethod);
+
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            renderFrame(renderer, graphics, i);
+        }
+
+        // The geometry thread runs until enough frames are drawn; frames produced while drawing are skipped
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread geometryThread = new Thread(() -> {
+            for (int i = 0; !done.get(); i++) {
+                updateFrame(renderer, i);
+            }
+        }, "geometry");
+
+        long start = System.nanoTime();
+        geometryThread.start();
+        try {
+            long frameNumber = renderer.awaitFrame(0, 0);
+            for (int i = 0; i < frames; i++) {
+                frameNumber = renderer.awaitFrame(frameNumber, Long.MAX_VALUE);
+                renderer.render(graphics);
+            }
+            done.set(true);
+            geometryThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        graphics.dispose();
+        renderer.stop();
+
+        System.out.println(drawingMethod + ", pipelined: mean " + Util.round(seconds * 1000 / frames, 3) + " ms"
+                + ", " + Math.round(frames / seconds) + " frames/s");
+    }
+
+    // Instances of the mesh are laid out on a square grid in the XZ plane, starting at the origin and going away
+    // from the camera
+    private static Renderer createRenderer(Mesh mesh, int instances, String drawingMethod) {
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.setDrawingMethod(drawingMethod);
+        renderer.setRotYactive(true);
+
+        double extent = 0.0;
+        double[] positions = mesh.getPositions();
+        for (int i = 0; i < 3 * mesh.getVertexCount(); i++) {
+            extent = Math.max(extent, Math.abs(positions[i]));
+        }
+        double spacing = 2.5 * extent;
+        int side = (int) Math.ceil(Math.sqrt(instances));
+        for (int i = 0; i < instances; i++) {
+            SceneNode node = new SceneNode(mesh);
+            node.setTranslation((i % side - (side - 1) / 2.0) * spacing, 0.0, (i / side) * spacing);
+            renderer.getScene().addChild(node);
+        }
+        return renderer;
+    }
+
+    // Scripted camera path: the mesh spins while the camera sways around it and moves back and forth
+    private static void renderFrame(Renderer renderer, Graphics2D graphics, int frame) {
+        updateFrame(renderer, frame);
+        renderer.render(graphics);
+    }
+
+    private static void updateFrame(Renderer renderer, int frame) {
+        Camera camera = renderer.getCamera();
+        double t = frame / 60.0;
+        camera.setPosition(new Vec3D(0.5 * Math.sin(t), 0.25 * Math.sin(0.5 * t), -1.0 + Math.sin(0.25 * t)));
+        camera.setYaw(10.0 * Math.sin(t));
+
+        renderer.update(t);
+    }
+}
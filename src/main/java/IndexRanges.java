@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+// List of ranges [start, end) of triangle or vertex indices
+public class IndexRanges {
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count = 0;
+    private long[] packed = new long[16]; // Buffer of sortAndMerge
+
+    public void clear() {
+        count = 0;
+    }
+
+    // Extends the last range instead when the new one continues it
+    public void add(int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        if (count > 0 && ends[count - 1] == start) {
+            ends[count - 1] = end;
+            return;
+        }
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * count);
+            ends = Arrays.copyOf(ends, 2 * count);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    // Sorts the ranges and merges the overlapping ones, so that every index is covered only once
+    public void sortAndMerge() {
+        if (count < 2) {
+            return;
+        }
+        // Both ends are non-negative ints, so the packed longs sort by start
+        if (packed.length < count) {
+            packed = new long[starts.length];
+        }
+        for (int i = 0; i < count; i++) {
+            packed[i] = (long) starts[i] << 32 | ends[i];
+        }
+        Arrays.sort(packed, 0, count);
+
+        int merged = 0;
+        for (int i = 0; i < count; i++) {
+            int start = (int) (packed[i] >>> 32);
+            int end = (int) packed[i];
+            if (merged > 0 && start <= ends[merged - 1]) {
+                ends[merged - 1] = Math.max(ends[merged - 1], end);
+            } else {
+                starts[merged] = start;
+                ends[merged] = end;
+                merged++;
+            }
+        }
+        count = merged;
+    }
+
+    // Copies the ranges split into pieces no longer than maxLength into pieces
+    public void split(int maxLength, IndexRanges pieces) {
+        pieces.clear();
+        for (int i = 0; i < count; i++) {
+            for (int start = starts[i]; start < ends[i]; start += maxLength) {
+                pieces.addSeparate(start, Math.min(ends[i], start + maxLength));
+            }
+        }
+    }
+
+    // Groups consecutive ranges into ranges [first, end) of range positions covering at most maxTotal indices each,
+    // a range longer than that gets a group of its own
+    public void group(int maxTotal, IndexRanges groups) {
+        groups.clear();
+        int first = 0;
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int length = ends[i] - starts[i];
+            if (i > first && total + length > maxTotal) {
+                groups.addSeparate(first, i);
+                first = i;
+                total = 0;
+            }
+            total += length;
+        }
+        if (count > first) {
+            groups.addSeparate(first, count);
+        }
+    }
+
+    private void addSeparate(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * count);
+            ends = Arrays.copyOf(ends, 2 * count);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    // Number of indices in all ranges
+    public int getTotal() {
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            total += ends[i] - starts[i];
+        }
+        return total;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    public int getEnd(int i) {
+        return ends[i];
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.Arrays;
+
+// Set of indices from 0 to the capacity, e.g. of the triangles a scanline span is inside, with constant-time toggling
+// The members are also kept in a compact list for iteration. Removing one moves the last member into its place,
+// so the list is not in the order the members were added -- getSequence tells that order
+public class IndexSet {
+    private int[] members = new int[16];
+    private int[] positions = new int[16]; // Position of every index in members, -1 if it is not a member
+    private int[] sequences = new int[16]; // Number of the addition of every member since the last clear
+    private int count = 0;
+    private int nextSequence = 0;
+
+    public IndexSet() {
+        Arrays.fill(positions, -1);
+    }
+
+    // Allows indices up to capacity - 1, keeps the members
+    public void ensureCapacity(int capacity) {
+        if (positions.length >= capacity) {
+            return;
+        }
+        int oldCapacity = positions.length;
+        capacity = Math.max(capacity, 2 * oldCapacity);
+        members = Arrays.copyOf(members, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+        Arrays.fill(positions, oldCapacity, capacity, -1);
+    }
+
+    // Only touches the members, so it is cheap for a small set of a large capacity
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            positions[members[i]] = -1;
+        }
+        count = 0;
+        nextSequence = 0;
+    }
+
+    // Adds the index if it is not a member, removes it otherwise; returns whether it was added
+    public boolean toggle(int index) {
+        int position = positions[index];
+        if (position < 0) {
+            positions[index] = count;
+            members[count++] = index;
+            sequences[index] = nextSequence++;
+            return true;
+        }
+        int last = members[--count];
+        members[position] = last;
+        positions[last] = position;
+        positions[index] = -1;
+        return false;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Member at the given position of the list
+    public int get(int i) {
+        return members[i];
+    }
+
+    // Members added earlier have lower numbers
+    public int getSequence(int index) {
+        return sequences[index];
+    }
+}
@@ -1,13 +1,21 @@
+import java.util.Arrays;
+
+// 4x4 matrix stored row by row in a flat array; vectors are multiplied as rows (v * M)
 public class Matrix {
-    private double[][] data;
+    private final double[] data;
 
     public Matrix() {
-        data = new double[4][4];
-        fill(0.0);
+        data = new double[16];
     }
 
     public static Matrix makeIdentity() {
-        Matrix m = new Matrix();
+        return makeIdentity(new Matrix());
+    }
+
+    // Variants taking a dest matrix overwrite all of its elements and return it, so that they can be used without allocating
+
+    public static Matrix makeIdentity(Matrix m) {
+        m.fill(0.0);
         for (int i = 0; i < 4; i++) {
             m.set(i, i, 1.0);
         }
@@ -15,153 +23,277 @@ public class Matrix {
     }
 
     public static Matrix makeRotationX(double angleRad) {
-        Matrix m = new Matrix();
-        m.data[0][0] = 1.0;
-        m.data[1][1] = Math.cos(angleRad);
-        m.data[1][2] = Math.sin(angleRad);
-        m.data[2][1] = -Math.sin(angleRad);
-        m.data[2][2] = Math.cos(angleRad);
-        m.data[3][3] = 1.0;
+        return makeRotationX(angleRad, new Matrix());
+    }
+
+    public static Matrix makeRotationX(double angleRad, Matrix m) {
+        m.fill(0.0);
+        m.data[0] = 1.0;
+        m.data[5] = Math.cos(angleRad);
+        m.data[6] = Math.sin(angleRad);
+        m.data[9] = -Math.sin(angleRad);
+        m.data[10] = Math.cos(angleRad);
+        m.data[15] = 1.0;
         return m;
     }
 
     public static Matrix makeRotationY(double angleRad) {
-        Matrix m = new Matrix();
-        m.data[0][0] = Math.cos(angleRad);
-        m.data[0][2] = Math.sin(angleRad);
-        m.data[2][0] = -Math.sin(angleRad);
-        m.data[1][1] = 1.0;
-        m.data[2][2] = Math.cos(angleRad);
-        m.data[3][3] = 1.0;
+        return makeRotationY(angleRad, new Matrix());
+    }
+
+    public static Matrix makeRotationY(double angleRad, Matrix m) {
+        m.fill(0.0);
+        m.data[0] = Math.cos(angleRad);
+        m.data[2] = Math.sin(angleRad);
+        m.data[8] = -Math.sin(angleRad);
+        m.data[5] = 1.0;
+        m.data[10] = Math.cos(angleRad);
+        m.data[15] = 1.0;
         return m;
     }
 
     public static Matrix makeRotationZ(double angleRad) {
-        Matrix m = new Matrix();
-        m.data[0][0] = Math.cos(angleRad);
-        m.data[0][1] = Math.sin(angleRad);
-        m.data[1][0] = -Math.sin(angleRad);
-        m.data[1][1] = Math.cos(angleRad);
-        m.data[2][2] = 1.0;
-        m.data[3][3] = 1.0;
+        return makeRotationZ(angleRad, new Matrix());
+    }
+
+    public static Matrix makeRotationZ(double angleRad, Matrix m) {
+        m.fill(0.0);
+        m.data[0] = Math.cos(angleRad);
+        m.data[1] = Math.sin(angleRad);
+        m.data[4] = -Math.sin(angleRad);
+        m.data[5] = Math.cos(angleRad);
+        m.data[10] = 1.0;
+        m.data[15] = 1.0;
         return m;
     }
 
     public static Matrix makeTranslation(double x, double y, double z) {
-        Matrix m = makeIdentity();
-        m.data[3][0] = x;
-        m.data[3][1] = y;
-        m.data[3][2] = z;
+        return makeTranslation(x, y, z, new Matrix());
+    }
+
+    public static Matrix makeTranslation(double x, double y, double z, Matrix m) {
+        makeIdentity(m);
+        m.data[12] = x;
+        m.data[13] = y;
+        m.data[14] = z;
         return m;
     }
 
     public static Matrix makeProjection(double fovDegrees, double aspectRatio, double zNear, double zFar) {
-        Matrix m = new Matrix();
+        return makeProjection(fovDegrees, aspectRatio, zNear, zFar, new Matrix());
+    }
+
+    public static Matrix makeProjection(double fovDegrees, double aspectRatio, double zNear, double zFar, Matrix m) {
+        m.fill(0.0);
         double fovRad = fovDegrees * (2 * Math.PI) / 360.0;
         double fovCoefficient = 1.0 / Math.tan(0.5 * fovRad);
 
-        m.data[0][0] = aspectRatio * fovCoefficient;
-        m.data[1][1] = fovCoefficient;
-        m.data[2][2] = zFar / (zFar - zNear);
-        m.data[3][2] = (-zFar * zNear) / (zFar - zNear);
-        m.data[2][3] = 1.0;
-        m.data[3][3] = 0.0;
+        m.data[0] = aspectRatio * fovCoefficient;
+        m.data[5] = fovCoefficient;
+        m.data[10] = zFar / (zFar - zNear);
+        m.data[14] = (-zFar * zNear) / (zFar - zNear);
+        m.data[11] = 1.0;
+        m.data[15] = 0.0;
         return m;
     }
 
     public static Matrix mult(Matrix A, Matrix B) {
-        Matrix C = new Matrix();
+        return mult(A, B, new Matrix());
+    }
+
+    public static Matrix mult(Matrix A, Matrix B, Matrix C) {
+        if (C == A || C == B) {
+            throw new IllegalArgumentException("Result matrix must be different from the multiplied matrices");
+        }
         double sum;
 
         for (int r = 0; r < 4; r++) {
             for (int c = 0; c < 4; c++) {
                 sum = 0.0;
                 for (int k = 0; k < 4; k++) {
-                    sum += A.data[r][k] * B.data[k][c];
+                    sum += A.data[4 * r + k] * B.data[4 * k + c];
                 }
-                C.data[r][c] = sum;
+                C.data[4 * r + c] = sum;
             }
         }
 
         return C;
     }
 
+    // Composes A * B * C (e.g. world * view * projection) into dest without intermediate matrices
+    public static Matrix mult(Matrix A, Matrix B, Matrix C, Matrix dest) {
+        if (dest == A || dest == B || dest == C) {
+            throw new IllegalArgumentException("Result matrix must be different from the multiplied matrices");
+        }
+        double[] a = A.data;
+        double[] b = B.data;
+        double[] c = C.data;
+        double[] d = dest.data;
+
+        for (int r = 0; r < 16; r += 4) {
+            // Row r of A * B
+            double ab0 = a[r] * b[0] + a[r + 1] * b[4] + a[r + 2] * b[8] + a[r + 3] * b[12];
+            double ab1 = a[r] * b[1] + a[r + 1] * b[5] + a[r + 2] * b[9] + a[r + 3] * b[13];
+            double ab2 = a[r] * b[2] + a[r + 1] * b[6] + a[r + 2] * b[10] + a[r + 3] * b[14];
+            double ab3 = a[r] * b[3] + a[r + 1] * b[7] + a[r + 2] * b[11] + a[r + 3] * b[15];
+
+            d[r] = ab0 * c[0] + ab1 * c[4] + ab2 * c[8] + ab3 * c[12];
+            d[r + 1] = ab0 * c[1] + ab1 * c[5] + ab2 * c[9] + ab3 * c[13];
+            d[r + 2] = ab0 * c[2] + ab1 * c[6] + ab2 * c[10] + ab3 * c[14];
+            d[r + 3] = ab0 * c[3] + ab1 * c[7] + ab2 * c[11] + ab3 * c[15];
+        }
+
+        return dest;
+    }
+
+    // Transforms count points stored as x, y, z in src (w = 1) into x, y, z, w in dst
+    public static void transformAll(Matrix m, double[] src, double[] dst, int count) {
+        transformAll(m, src, dst, 0, count);
+    }
+
+    // Transforms only the points [from, to), so that disjoint ranges can be transformed in parallel
+    public static void transformAll(Matrix m, double[] src, double[] dst, int from, int to) {
+        double[] d = m.data;
+        double m00 = d[0], m01 = d[1], m02 = d[2], m03 = d[3];
+        double m10 = d[4], m11 = d[5], m12 = d[6], m13 = d[7];
+        double m20 = d[8], m21 = d[9], m22 = d[10], m23 = d[11];
+        double m30 = d[12], m31 = d[13], m32 = d[14], m33 = d[15];
+
+        for (int i = from; i < to; i++) {
+            double x = src[3 * i];
+            double y = src[3 * i + 1];
+            double z = src[3 * i + 2];
+            dst[4 * i] = x * m00 + y * m10 + z * m20 + m30;
+            dst[4 * i + 1] = x * m01 + y * m11 + z * m21 + m31;
+            dst[4 * i + 2] = x * m02 + y * m12 + z * m22 + m32;
+            dst[4 * i + 3] = x * m03 + y * m13 + z * m23 + m33;
+        }
+    }
+
+    // Planes of the view volume of a (world *) view * projection matrix in the space the matrix transforms from
+    // Left, right, bottom, top, near and far plane as a, b, c, d of ax + by + cz + d >= 0 on the inner side
+    // (the same conditions -w <= x, y <= w and 0 <= z <= w as used by TriangleClipper)
+    public static void makeFrustumPlanes(Matrix m, double[] planes) {
+        double[] d = m.data;
+        for (int r = 0; r < 4; r++) {
+            double x = d[4 * r];
+            double y = d[4 * r + 1];
+            double z = d[4 * r + 2];
+            double w = d[4 * r + 3];
+            planes[r] = w + x;
+            planes[4 + r] = w - x;
+            planes[8 + r] = w + y;
+            planes[12 + r] = w - y;
+            planes[16 + r] = z;
+            planes[20 + r] = w - z;
+        }
+    }
+
     public static Matrix makePointAtMatrix(Vec3D position, Vec3D target, Vec3D up) {
-        Vec3D newForward = Vec3D.subtract(target, position);
-        newForward = Vec3D.normalise(newForward);
+        return makePointAtMatrix(position, target, up, new Matrix());
+    }
 
-        Vec3D a = Vec3D.mult(newForward, Vec3D.dotProduct(up, newForward));
-        Vec3D newUp = Vec3D.subtract(up, a);
-        newUp = Vec3D.normalise(newUp);
+    public static Matrix makePointAtMatrix(Vec3D position, Vec3D target, Vec3D up, Matrix m) {
+        double forwardX = target.getX() - position.getX();
+        double forwardY = target.getY() - position.getY();
+        double forwardZ = target.getZ() - position.getZ();
+        double length = Math.sqrt(forwardX * forwardX + forwardY * forwardY + forwardZ * forwardZ);
+        if (length < Util.EPS) {
+            throw new IllegalArgumentException("Cannot divide by 0");
+        }
+        forwardX /= length;
+        forwardY /= length;
+        forwardZ /= length;
+
+        double dotProduct = up.getX() * forwardX + up.getY() * forwardY + up.getZ() * forwardZ;
+        double upX = up.getX() - forwardX * dotProduct;
+        double upY = up.getY() - forwardY * dotProduct;
+        double upZ = up.getZ() - forwardZ * dotProduct;
+        length = Math.sqrt(upX * upX + upY * upY + upZ * upZ);
+        if (length < Util.EPS) {
+            throw new IllegalArgumentException("Cannot divide by 0");
+        }
+        upX /= length;
+        upY /= length;
+        upZ /= length;
 
-        Vec3D newRight = Vec3D.crossProduct(newUp, newForward);
+        // newRight = newUp x newForward
+        double rightX = upY * forwardZ - upZ * forwardY;
+        double rightY = upZ * forwardX - upX * forwardZ;
+        double rightZ = upX * forwardY - upY * forwardX;
 
         // Rotation and translation matrix
-        Matrix m = new Matrix();
-        m.data[0][0] = newRight.getX();
-        m.data[0][1] = newRight.getY();
-        m.data[0][2] = newRight.getZ();
-        m.data[0][3] = 0.0;
-
-        m.data[1][0] = newUp.getX();
-        m.data[1][1] = newUp.getY();
-        m.data[1][2] = newUp.getZ();
-        m.data[1][3] = 0.0;
-
-        m.data[2][0] = newForward.getX();
-        m.data[2][1] = newForward.getY();
-        m.data[2][2] = newForward.getZ();
-        m.data[2][3] = 0.0;
-
-        m.data[3][0] = position.getX();
-        m.data[3][1] = position.getY();
-        m.data[3][2] = position.getZ();
-        m.data[3][3] = 1.0;
+        m.data[0] = rightX;
+        m.data[1] = rightY;
+        m.data[2] = rightZ;
+        m.data[3] = 0.0;
+
+        m.data[4] = upX;
+        m.data[5] = upY;
+        m.data[6] = upZ;
+        m.data[7] = 0.0;
+
+        m.data[8] = forwardX;
+        m.data[9] = forwardY;
+        m.data[10] = forwardZ;
+        m.data[11] = 0.0;
+
+        m.data[12] = position.getX();
+        m.data[13] = position.getY();
+        m.data[14] = position.getZ();
+        m.data[15] = 1.0;
 
         return m;
     }
 
     public static Matrix quickInverse(Matrix m) {
+        return quickInverse(m, new Matrix());
+    }
+
+    public static Matrix quickInverse(Matrix m, Matrix inv) {
         // Only for rotation / translation matrices
-        Matrix inv = new Matrix();
+        if (inv == m) {
+            throw new IllegalArgumentException("Result matrix must be different from the inverted matrix");
+        }
 
-        inv.data[0][0] = m.data[0][0];
-        inv.data[0][1] = m.data[1][0];
-        inv.data[0][2] = m.data[2][0];
-        inv.data[0][3] = 0.0;
+        inv.data[0] = m.data[0];
+        inv.data[1] = m.data[4];
+        inv.data[2] = m.data[8];
+        inv.data[3] = 0.0;
 
-        inv.data[1][0] = m.data[0][1];
-        inv.data[1][1] = m.data[1][1];
-        inv.data[1][2] = m.data[2][1];
-        inv.data[1][3] = 0.0;
+        inv.data[4] = m.data[1];
+        inv.data[5] = m.data[5];
+        inv.data[6] = m.data[9];
+        inv.data[7] = 0.0;
 
-        inv.data[2][0] = m.data[0][2];
-        inv.data[2][1] = m.data[1][2];
-        inv.data[2][2] = m.data[2][2];
-        inv.data[2][3] = 0.0;
+        inv.data[8] = m.data[2];
+        inv.data[9] = m.data[6];
+        inv.data[10] = m.data[10];
+        inv.data[11] = 0.0;
 
-        inv.data[3][0] = -(m.data[3][0] * inv.data[0][0] + m.data[3][1] * inv.data[1][0] + m.data[3][2] * inv.data[2][0]);
-        inv.data[3][1] = -(m.data[3][0] * inv.data[0][1] + m.data[3][1] * inv.data[1][1] + m.data[3][2] * inv.data[2][1]);
-        inv.data[3][2] = -(m.data[3][0] * inv.data[0][2] + m.data[3][1] * inv.data[1][2] + m.data[3][2] * inv.data[2][2]);
-        inv.data[3][3] = 1.0;
+        inv.data[12] = -(m.data[12] * inv.data[0] + m.data[13] * inv.data[4] + m.data[14] * inv.data[8]);
+        inv.data[13] = -(m.data[12] * inv.data[1] + m.data[13] * inv.data[5] + m.data[14] * inv.data[9]);
+        inv.data[14] = -(m.data[12] * inv.data[2] + m.data[13] * inv.data[6] + m.data[14] * inv.data[10]);
+        inv.data[15] = 1.0;
 
         return inv;
     }
 
     public void fill(double value) {
-        for (int r = 0; r < 4; r++) {
-            for (int c = 0; c < 4; c++) {
-                set(r, c, value);
-            }
-        }
+        Arrays.fill(data, value);
     }
 
     public double get(int r, int c) {
-        return data[r][c];
+        return data[4 * r + c];
     }
 
     public void set(int r, int c, double v) {
-        data[r][c] = v;
+        data[4 * r + c] = v;
+    }
+
+    // Backing array, element (r, c) is at index 4 * r + c
+    public double[] getData() {
+        return data;
     }
 
     @Override
@@ -169,7 +301,7 @@ public class Matrix {
         StringBuilder sb = new StringBuilder("[\n");
         for (int r = 0; r < 4; r++) {
             for (int c = 0; c < 4; c++) {
-                sb.append(data[r][c]);
+                sb.append(data[4 * r + c]);
                 if (c < 3) {
                     sb.append(", ");
                 } else {
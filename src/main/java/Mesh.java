@@ -1,29 +1,389 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+// Indexed mesh: vertices are shared between triangles and stored in primitive arrays
 public class Mesh {
-    private List<Triangle> triangles;
+    public static final int NO_COLOR = -1;
+    public static final int LOD_LEVELS = 4; // Including the mesh itself
+    private static final int MIN_LOD_TRIANGLES = 256; // Meshes are not simplified below that
+
+    private double[] positions; // x, y, z of every vertex
+    private int[] indices; // 3 vertex indices of every triangle
+    private double[] faceNormals; // x, y, z of every triangle's unit normal
+    private int[] colors; // RGB of every triangle packed into an int, NO_COLOR when not set
+    private double[] vertexNormals = new double[0]; // x, y, z of every vertex's unit smooth normal
+    private int vertexCount = 0;
+    private int triangleCount = 0;
+    private Bvh bvh; // null until buildBvh is called
+    private final List<Mesh> lods = new ArrayList<>(); // Simplified levels, each with about half the triangles of the previous
+    private final Vec3D boundingCenter = new Vec3D();
+    private double boundingRadius = 0.0;
 
     public Mesh() {
-        triangles = new ArrayList<>();
+        this(16, 16);
     }
 
-    public void addTriangle(Triangle triangle) {
-        triangles.add(triangle);
+    // Sized for the given numbers of vertices and triangles, e.g. when they are known from the file
+    public Mesh(int vertexCapacity, int triangleCapacity) {
+        vertexCapacity = Math.max(vertexCapacity, 1);
+        triangleCapacity = Math.max(triangleCapacity, 1);
+        positions = new double[3 * vertexCapacity];
+        indices = new int[3 * triangleCapacity];
+        faceNormals = new double[3 * triangleCapacity];
+        colors = new int[triangleCapacity];
     }
 
-    public List<Triangle> getTriangles() {
-        return triangles;
+    public int addVertex(double x, double y, double z) {
+        if (3 * vertexCount == positions.length) {
+            positions = Arrays.copyOf(positions, 2 * positions.length);
+        }
+        positions[3 * vertexCount] = x;
+        positions[3 * vertexCount + 1] = y;
+        positions[3 * vertexCount + 2] = z;
+        return vertexCount++;
+    }
+
+    public int addTriangle(int v0, int v1, int v2) {
+        return addTriangle(v0, v1, v2, NO_COLOR);
+    }
+
+    public int addTriangle(int v0, int v1, int v2, int color) {
+        if (v0 < 0 || v0 >= vertexCount || v1 < 0 || v1 >= vertexCount || v2 < 0 || v2 >= vertexCount) {
+            throw new IllegalArgumentException("Vertex index out of range");
+        }
+        if (3 * triangleCount == indices.length) {
+            indices = Arrays.copyOf(indices, 2 * indices.length);
+            faceNormals = Arrays.copyOf(faceNormals, 2 * faceNormals.length);
+            colors = Arrays.copyOf(colors, 2 * colors.length);
+        }
+        indices[3 * triangleCount] = v0;
+        indices[3 * triangleCount + 1] = v1;
+        indices[3 * triangleCount + 2] = v2;
+        colors[triangleCount] = color;
+        computeFaceNormal(triangleCount);
+        return triangleCount++;
+    }
+
+    private void computeFaceNormal(int t) {
+        int i0 = 3 * indices[3 * t];
+        int i1 = 3 * indices[3 * t + 1];
+        int i2 = 3 * indices[3 * t + 2];
+
+        double line1X = positions[i1] - positions[i0];
+        double line1Y = positions[i1 + 1] - positions[i0 + 1];
+        double line1Z = positions[i1 + 2] - positions[i0 + 2];
+        double line2X = positions[i2] - positions[i0];
+        double line2Y = positions[i2 + 1] - positions[i0 + 1];
+        double line2Z = positions[i2 + 2] - positions[i0 + 2];
+
+        double nX = line1Y * line2Z - line1Z * line2Y;
+        double nY = line1Z * line2X - line1X * line2Z;
+        double nZ = line1X * line2Y - line1Y * line2X;
+        double length = Math.sqrt(nX * nX + nY * nY + nZ * nZ);
+        if (length > Util.EPS) {
+            nX /= length;
+            nY /= length;
+            nZ /= length;
+        }
+
+        faceNormals[3 * t] = nX;
+        faceNormals[3 * t + 1] = nY;
+        faceNormals[3 * t + 2] = nZ;
+    }
+
+    // Smooth normal of a vertex is the average of the normals of the triangles sharing it, weighted by the triangles'
+    // angles at the vertex (so that e.g. a cube's corner is not biased by how its faces are split into triangles)
+    // Has to be called after the mesh is built (MeshReader does it at load time)
+    public void computeVertexNormals() {
+        vertexNormals = new double[3 * vertexCount];
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int i = 3 * indices[3 * t + k];
+                int iNext = 3 * indices[3 * t + (k + 1) % 3];
+                int iPrev = 3 * indices[3 * t + (k + 2) % 3];
+
+                double line1X = positions[iNext] - positions[i];
+                double line1Y = positions[iNext + 1] - positions[i + 1];
+                double line1Z = positions[iNext + 2] - positions[i + 2];
+                double line2X = positions[iPrev] - positions[i];
+                double line2Y = positions[iPrev + 1] - positions[i + 1];
+                double line2Z = positions[iPrev + 2] - positions[i + 2];
+                double length1 = Math.sqrt(line1X * line1X + line1Y * line1Y + line1Z * line1Z);
+                double length2 = Math.sqrt(line2X * line2X + line2Y * line2Y + line2Z * line2Z);
+                if (length1 < Util.EPS || length2 < Util.EPS) {
+                    continue;
+                }
+
+                double cos = (line1X * line2X + line1Y * line2Y + line1Z * line2Z) / (length1 * length2);
+                double angle = Math.acos(Math.max(-1.0, Math.min(1.0, cos)));
+
+                vertexNormals[i] += angle * faceNormals[3 * t];
+                vertexNormals[i + 1] += angle * faceNormals[3 * t + 1];
+                vertexNormals[i + 2] += angle * faceNormals[3 * t + 2];
+            }
+        }
+
+        for (int i = 0; i < 3 * vertexCount; i += 3) {
+            double length = Math.sqrt(vertexNormals[i] * vertexNormals[i] + vertexNormals[i + 1] * vertexNormals[i + 1] + vertexNormals[i + 2] * vertexNormals[i + 2]);
+            if (length > Util.EPS) {
+                vertexNormals[i] /= length;
+                vertexNormals[i + 1] /= length;
+                vertexNormals[i + 2] /= length;
+            }
+        }
+    }
+
+    // Has to be called after the mesh is built, reorders triangles and vertices (MeshReader does it at load time)
+    public void buildBvh() {
+        bvh = Bvh.build(this);
+    }
+
+    public void computeBoundingSphere() {
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int v = 0; v < vertexCount; v++) {
+            for (int c = 0; c < 3; c++) {
+                min[c] = Math.min(min[c], positions[3 * v + c]);
+                max[c] = Math.max(max[c], positions[3 * v + c]);
+            }
+        }
+        if (vertexCount == 0) {
+            boundingCenter.set(0, 0, 0, 1);
+            boundingRadius = 0.0;
+            return;
+        }
+
+        // Sphere around the center of the bounding box
+        boundingCenter.set(0.5 * (min[0] + max[0]), 0.5 * (min[1] + max[1]), 0.5 * (min[2] + max[2]), 1);
+        double radiusSquared = 0.0;
+        for (int v = 0; v < vertexCount; v++) {
+            double dx = positions[3 * v] - boundingCenter.getX();
+            double dy = positions[3 * v + 1] - boundingCenter.getY();
+            double dz = positions[3 * v + 2] - boundingCenter.getZ();
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
+        boundingRadius = Math.sqrt(radiusSquared);
+    }
+
+    // Simplified levels of detail, each with half the triangles of the previous one, share the bounding sphere's center
+    // Their radius is grown where the simplifier moved vertices outside the sphere, so that occlusion and frustum tests
+    // done with the level drawn stay conservative
+    // Has to be called after computeBoundingSphere (MeshReader does it at load time)
+    public void buildLods() {
+        lods.clear();
+        Mesh previous = this;
+        for (int level = 1; level < LOD_LEVELS; level++) {
+            int target = triangleCount >> level;
+            if (target < MIN_LOD_TRIANGLES) {
+                break;
+            }
+            Mesh lod = MeshSimplifier.simplify(previous, target);
+            if (lod.getTriangleCount() >= previous.getTriangleCount()) {
+                // Nothing more can be collapsed
+                break;
+            }
+            lod.computeVertexNormals();
+            lod.buildBvh();
+            lod.boundingCenter.set(boundingCenter);
+            double radiusSquared = boundingRadius * boundingRadius;
+            for (int v = 0; v < lod.vertexCount; v++) {
+                double dx = lod.positions[3 * v] - boundingCenter.getX();
+                double dy = lod.positions[3 * v + 1] - boundingCenter.getY();
+                double dz = lod.positions[3 * v + 2] - boundingCenter.getZ();
+                radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+            }
+            lod.boundingRadius = Math.sqrt(radiusSquared);
+            lods.add(lod);
+            previous = lod;
+        }
+    }
+
+    // Puts the triangles in the given order and numbers the vertices in the order of their first use
+    void reorder(int[] triangleOrder) {
+        int[] newIndices = new int[indices.length];
+        double[] newFaceNormals = new double[faceNormals.length];
+        int[] newColors = new int[colors.length];
+        int[] newVertexIds = new int[vertexCount];
+        Arrays.fill(newVertexIds, -1);
+        int[] oldVertexIds = new int[vertexCount];
+        int newVertexCount = 0;
+
+        for (int t = 0; t < triangleCount; t++) {
+            int old = triangleOrder[t];
+            for (int k = 0; k < 3; k++) {
+                int v = indices[3 * old + k];
+                if (newVertexIds[v] == -1) {
+                    oldVertexIds[newVertexCount] = v;
+                    newVertexIds[v] = newVertexCount++;
+                }
+                newIndices[3 * t + k] = newVertexIds[v];
+                newFaceNormals[3 * t + k] = faceNormals[3 * old + k];
+            }
+            newColors[t] = colors[old];
+        }
+        // Vertices not used by any triangle go last
+        for (int v = 0; v < vertexCount; v++) {
+            if (newVertexIds[v] == -1) {
+                oldVertexIds[newVertexCount] = v;
+                newVertexIds[v] = newVertexCount++;
+            }
+        }
+
+        double[] newPositions = new double[positions.length];
+        boolean hasVertexNormals = vertexNormals.length == 3 * vertexCount;
+        double[] newVertexNormals = hasVertexNormals ? new double[vertexNormals.length] : vertexNormals;
+        for (int v = 0; v < vertexCount; v++) {
+            int old = oldVertexIds[v];
+            System.arraycopy(positions, 3 * old, newPositions, 3 * v, 3);
+            if (hasVertexNormals) {
+                System.arraycopy(vertexNormals, 3 * old, newVertexNormals, 3 * v, 3);
+            }
+        }
+
+        indices = newIndices;
+        faceNormals = newFaceNormals;
+        colors = newColors;
+        positions = newPositions;
+        vertexNormals = newVertexNormals;
     }
 
-    public void setTriangles(List<Triangle> triangles) {
-        this.triangles = triangles;
+    // Binary form of a prepared mesh (see MeshCache): its arrays, BVH, bounding sphere and levels of detail
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(vertexCount);
+        out.writeInt(triangleCount);
+        MeshCache.writeDoubles(out, positions, 3 * vertexCount);
+        MeshCache.writeDoubles(out, vertexNormals, vertexNormals.length);
+        MeshCache.writeInts(out, indices, 3 * triangleCount);
+        MeshCache.writeDoubles(out, faceNormals, 3 * triangleCount);
+        MeshCache.writeInts(out, colors, triangleCount);
+        out.writeBoolean(bvh != null);
+        if (bvh != null) {
+            bvh.write(out);
+        }
+        out.writeDouble(boundingCenter.getX());
+        out.writeDouble(boundingCenter.getY());
+        out.writeDouble(boundingCenter.getZ());
+        out.writeDouble(boundingRadius);
+        out.writeInt(lods.size());
+        for (Mesh lod : lods) {
+            lod.write(out);
+        }
+    }
+
+    static Mesh read(ByteBuffer in) {
+        Mesh mesh = new Mesh();
+        mesh.vertexCount = in.getInt();
+        mesh.triangleCount = in.getInt();
+        mesh.positions = MeshCache.readDoubles(in);
+        mesh.vertexNormals = MeshCache.readDoubles(in);
+        mesh.indices = MeshCache.readInts(in);
+        mesh.faceNormals = MeshCache.readDoubles(in);
+        mesh.colors = MeshCache.readInts(in);
+        if (in.get() != 0) {
+            mesh.bvh = Bvh.read(in);
+        }
+        mesh.boundingCenter.set(in.getDouble(), in.getDouble(), in.getDouble(), 1);
+        mesh.boundingRadius = in.getDouble();
+        int lodCount = in.getInt();
+        for (int i = 0; i < lodCount; i++) {
+            mesh.lods.add(read(in));
+        }
+        return mesh;
+    }
+
+    public static int packColor(int r, int g, int b) {
+        return (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    // Backing arrays -- may be longer than the number of vertices / triangles stored
+    public double[] getPositions() {
+        return positions;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public double[] getFaceNormals() {
+        return faceNormals;
+    }
+
+    public int[] getColors() {
+        return colors;
+    }
+
+    public double[] getVertexNormals() {
+        return vertexNormals;
+    }
+
+    public Bvh getBvh() {
+        return bvh;
+    }
+
+    public int getLodCount() {
+        return 1 + lods.size();
+    }
+
+    // Level 0 is the mesh itself
+    public Mesh getLod(int level) {
+        return level == 0 ? this : lods.get(level - 1);
+    }
+
+    public Vec3D getBoundingCenter() {
+        return boundingCenter;
+    }
+
+    public double getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    // Estimated bytes taken by the arrays of the mesh, its BVH and levels of detail
+    public long getMemorySize() {
+        long size = 8L * (positions.length + faceNormals.length + vertexNormals.length) + 4L * (indices.length + colors.length);
+        if (bvh != null) {
+            size += bvh.getMemorySize();
+        }
+        for (Mesh lod : lods) {
+            size += lod.getMemorySize();
+        }
+        return size;
+    }
+
+    public Vec3D getVertex(int v) {
+        return new Vec3D(positions[3 * v], positions[3 * v + 1], positions[3 * v + 2]);
+    }
+
+    // Materialises the mesh as separate triangles; not meant for the rendering loop
+    public List<Triangle> getTriangles() {
+        List<Triangle> triangles = new ArrayList<>(triangleCount);
+        for (int t = 0; t < triangleCount; t++) {
+            Triangle triangle = new Triangle(new Vec3D[]{
+                    getVertex(indices[3 * t]),
+                    getVertex(indices[3 * t + 1]),
+                    getVertex(indices[3 * t + 2])
+            });
+            triangle.setColor(colors[t]);
+            triangles.add(triangle);
+        }
+        return triangles;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Triangle t : triangles) {
+        for (Triangle t : getTriangles()) {
             sb.append(t.toString()).append("\n");
         }
         return sb.toString();
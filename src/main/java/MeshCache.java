@@ -0,0 +1,137 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Binary copies of loaded meshes, so that later starts skip parsing and the load-time processing
+// (normals, BVH, levels of detail). A cache file is used only if the size, modification time and CRC-32 of the
+// source file are the ones it was written from
+// File: header (magic, version, source size, modification time and CRC-32), then the mesh (see Mesh.write)
+public class MeshCache {
+    private static final int MAGIC = 0x4D455348; // "MESH"
+    private static final int VERSION = 3; // Has to be increased when the format or the load-time processing changes
+
+    private final Path directory;
+
+    public MeshCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // Returns null when there is no valid cache file for the source file
+    // A cache file that is there but cannot be used is reported, the mesh is then loaded from the source file and
+    // the cache file rewritten
+    public Mesh load(String filename) {
+        Path cacheFile = cacheFile(filename);
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            String staleReason = checkHeader(in, Paths.get(filename));
+            if (staleReason != null) {
+                System.err.println(cacheFile + ": " + staleReason + ", loading " + filename + " again");
+                return null;
+            }
+            return Mesh.read(in);
+        } catch (IOException | RuntimeException e) {
+            // A damaged cache file is ignored, the mesh is loaded from the source file and the file rewritten
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Reads the header, returns why the cache file cannot be used for the source file or null if it can
+    private static String checkHeader(ByteBuffer in, Path source) throws IOException {
+        if (in.remaining() < 32) {
+            return "Incomplete header";
+        }
+        if (in.getInt() != MAGIC) {
+            return "Not a mesh cache file";
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            return "Version " + version + ", expected " + VERSION;
+        }
+        if (in.getLong() != Files.size(source)) {
+            return "Source file size changed";
+        }
+        if (in.getLong() != Files.getLastModifiedTime(source).toMillis()) {
+            return "Source file modification time changed";
+        }
+        if (in.getLong() != checksum(source)) {
+            return "Source file checksum changed";
+        }
+        return null;
+    }
+
+    public void store(String filename, Mesh mesh) {
+        Path cacheFile = cacheFile(filename);
+        try {
+            Files.createDirectories(directory);
+            Path source = Paths.get(filename);
+            // Written under another name and then renamed, so that a concurrent load never sees half of the file
+            Path temporaryFile = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(source));
+                out.writeLong(Files.getLastModifiedTime(source).toMillis());
+                out.writeLong(checksum(source));
+                mesh.write(out);
+            }
+            Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Files with the same name in different directories get different cache files
+    private Path cacheFile(String filename) {
+        Path source = Paths.get(filename).toAbsolutePath().normalize();
+        return directory.resolve(source.getFileName() + "-" + Integer.toHexString(source.toString().hashCode()) + ".mesh");
+    }
+
+    private static long checksum(Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return crc.getValue();
+        }
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] array, int length) throws IOException {
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+            out.writeDouble(array[i]);
+        }
+    }
+
+    static void writeInts(DataOutputStream out, int[] array, int length) throws IOException {
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+            out.writeInt(array[i]);
+        }
+    }
+
+    static double[] readDoubles(ByteBuffer in) {
+        double[] array = new double[in.getInt()];
+        in.asDoubleBuffer().get(array);
+        in.position(in.position() + 8 * array.length);
+        return array;
+    }
+
+    static int[] readInts(ByteBuffer in) {
+        int[] array = new int[in.getInt()];
+        in.asIntBuffer().get(array);
+        in.position(in.position() + 4 * array.length);
+        return array;
+    }
+}
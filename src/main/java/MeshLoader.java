@@ -0,0 +1,89 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Loads meshes on a background thread when they are first requested and keeps the recently requested ones,
+// up to a total estimated size. Evicted meshes stay valid for whoever still uses them, they are only loaded
+// again when requested after that
+public class MeshLoader {
+    private final MeshReader meshReader;
+    private final long maxCachedBytes;
+    private long cachedBytes = 0;
+
+    // Access order: the least recently requested mesh comes first and is evicted first
+    private final Map<String, CachedMesh> meshes = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mesh-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class CachedMesh {
+        private final CompletableFuture<Mesh> future;
+        private long size = 0; // 0 while loading
+
+        private CachedMesh(CompletableFuture<Mesh> future) {
+            this.future = future;
+        }
+    }
+
+    public MeshLoader(MeshReader meshReader, long maxCachedBytes) {
+        this.meshReader = meshReader;
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    // The future completes with null when the mesh cannot be read, never exceptionally; the next request then
+    // tries again
+    public synchronized CompletableFuture<Mesh> load(String filename) {
+        CachedMesh cached = meshes.get(filename);
+        if (cached == null) {
+            cached = new CachedMesh(CompletableFuture.supplyAsync(() -> read(filename), executor)
+                    .handle((mesh, e) -> {
+                        if (e != null) {
+                            e.printStackTrace();
+                            return null;
+                        }
+                        return mesh;
+                    }));
+            meshes.put(filename, cached);
+            CachedMesh loading = cached;
+            cached.future.thenAccept(mesh -> loaded(filename, loading, mesh));
+        }
+        return cached.future;
+    }
+
+    private Mesh read(String filename) {
+        return filename.endsWith(".obj") ? meshReader.readFromObjFile(filename) : meshReader.readMeshFromFile(filename);
+    }
+
+    private synchronized void loaded(String filename, CachedMesh cached, Mesh mesh) {
+        if (mesh == null) {
+            meshes.remove(filename);
+            return;
+        }
+        cached.size = mesh.getMemorySize();
+        cachedBytes += cached.size;
+
+        // The most recently requested mesh is kept even if it alone is over the limit
+        Iterator<CachedMesh> iterator = meshes.values().iterator();
+        for (int i = meshes.size(); i > 1 && cachedBytes > maxCachedBytes; i--) {
+            CachedMesh oldest = iterator.next();
+            if (oldest.size > 0) {
+                cachedBytes -= oldest.size;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int getCachedMeshCount() {
+        return meshes.size();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+}
@@ -2,12 +2,37 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class MeshReader {
+    private static final long MIN_CHUNK_SIZE = 4 << 20; // OBJ files are split into chunks of at least that many bytes
+
+    private final MeshCache cache; // null when meshes are not cached
+
+    public MeshReader() {
+        this(null);
+    }
+
+    public MeshReader(MeshCache cache) {
+        this.cache = cache;
+    }
 
     public Mesh readMeshFromFile(String filename) {
+        Mesh mesh = loadCached(filename);
+        return mesh != null ? mesh : prepare(filename, parseMeshFile(filename));
+    }
+
+    private Mesh parseMeshFile(String filename) {
         Mesh mesh = new Mesh();
         String line;
         String[] splittedLine;
@@ -16,13 +41,12 @@ public class MeshReader {
         int vec3dCount = 0;
 
         Vec3D vec3d;
-        Vec3D[] triangleVecs = {null, null, null};
-        Triangle triangle = new Triangle();
+        int[] triangleVecs = new int[3];
+        int color = Mesh.NO_COLOR;
+        SharedVertices sharedVertices = new SharedVertices(mesh, 0);
 
         File file = new File(filename);
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             while ((line = reader.readLine()) != null) {
                 linesCount++;
                 if (line.startsWith("//") || line.trim().isEmpty()) {
@@ -35,7 +59,7 @@ public class MeshReader {
                     int r = Integer.parseInt(splittedLine[1]);
                     int g = Integer.parseInt(splittedLine[2]);
                     int b = Integer.parseInt(splittedLine[3]);
-                    triangle.setRGB(r, g, b);
+                    color = Mesh.packColor(r, g, b);
                     continue;
                 }
 
@@ -49,17 +73,15 @@ public class MeshReader {
                 vec3d.setY(Double.parseDouble(splittedLine[1]));
                 vec3d.setZ(Double.parseDouble(splittedLine[2]));
 
-                triangleVecs[vec3dCount] = vec3d;
+                triangleVecs[vec3dCount] = sharedVertices.add(vec3d.getX(), vec3d.getY(), vec3d.getZ());
                 vec3dCount++;
 
                 if (vec3dCount == 3) {
-                    triangle.setVecs(triangleVecs.clone());
-                    mesh.addTriangle(triangle);
-                    triangle = new Triangle();
+                    mesh.addTriangle(triangleVecs[0], triangleVecs[1], triangleVecs[2], color);
+                    color = Mesh.NO_COLOR;
                     vec3dCount = 0;
                 }
             }
-
         } catch (IOException | NumberFormatException e) {
             e.printStackTrace();
             return null;
@@ -68,21 +90,117 @@ public class MeshReader {
     }
 
     public Mesh readFromObjFile(String filename) {
+        Mesh mesh = loadCached(filename);
+        return mesh != null ? mesh : prepare(filename, parseObjFile(filename));
+    }
+
+    // Returns the mesh without the load-time processing
+    // Large files are split into chunks parsed in parallel, one per processor
+    Mesh parseObjFile(String filename) {
+        return parseObjFile(filename, 0);
+    }
+
+    // chunkCount 0 chooses the number of chunks from the file size
+    Mesh parseObjFile(String filename, int chunkCount) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(filename + ": File too large");
+            }
+            if (chunkCount == 0) {
+                chunkCount = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), channel.size() / MIN_CHUNK_SIZE));
+            }
+            ObjParser[] chunks = ObjParser.split(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), chunkCount, filename);
+            if (chunks.length == 1) {
+                chunks[0].parse();
+            } else {
+                parseInParallel(chunks);
+            }
+            return mergeChunks(chunks);
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void parseInParallel(ObjParser[] chunks) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (ObjParser chunk : chunks) {
+            tasks.add(() -> {
+                chunk.parse();
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Joins the chunks in file order: welds their vertices and resolves the face indices, which may be negative
+    // (relative to the last vertex read) and refer to vertices of earlier chunks
+    private Mesh mergeChunks(ObjParser[] chunks) throws IOException {
+        int vertexCount = 0;
+        int triangleCount = 0;
+        for (ObjParser chunk : chunks) {
+            vertexCount += chunk.getVertexCount();
+            triangleCount += chunk.getTriangleCount();
+        }
+        double[] vertices = new double[3 * vertexCount];
+        int vertexOffset = 0;
+        for (ObjParser chunk : chunks) {
+            System.arraycopy(chunk.getVertices(), 0, vertices, 3 * vertexOffset, 3 * chunk.getVertexCount());
+            vertexOffset += chunk.getVertexCount();
+        }
+
+        Mesh mesh = new Mesh(vertexCount, triangleCount);
+        int[] meshVertices = weldVertices(mesh, vertices, vertexCount);
+        vertexOffset = 0;
+        for (ObjParser chunk : chunks) {
+            int[] triangles = chunk.getTriangles();
+            for (int t = 0; t < chunk.getTriangleCount(); t++) {
+                int v0 = resolveIndex(chunk, t, triangles[3 * t], vertexOffset, vertexCount);
+                int v1 = resolveIndex(chunk, t, triangles[3 * t + 1], vertexOffset, vertexCount);
+                int v2 = resolveIndex(chunk, t, triangles[3 * t + 2], vertexOffset, vertexCount);
+                mesh.addTriangle(meshVertices[v0], meshVertices[v1], meshVertices[v2]);
+            }
+            vertexOffset += chunk.getVertexCount();
+        }
+        return mesh;
+    }
+
+    private int resolveIndex(ObjParser chunk, int triangle, int index, int vertexOffset, int vertexCount) throws IOException {
+        // OBJ indices start from 1, negative ones count back from the last vertex before the face
+        int v = index > 0 ? index - 1 : vertexOffset + chunk.getRelativeBase(triangle) + index;
+        if (v < 0 || v >= vertexCount) {
+            throw new IOException(chunk.getFilename() + ", line " + chunk.findTriangleLine(triangle) + ": Invalid vertex index");
+        }
+        return v;
+    }
+
+    // Line-based reader replaced by the memory-mapped parser, kept as the baseline of the loading benchmark
+    // Returns the mesh without the load-time processing
+    Mesh parseObjFileBuffered(String filename) {
         Mesh mesh = new Mesh();
         String line;
         String[] splittedLine;
 
         int linesCount = 0;
         int[] f = new int[3];
-
-        Vec3D vec3d;
-        List<Vec3D> verts = new ArrayList<>();
-        Vec3D[] triangleVecs = {null, null, null};
+        int[] vertexIndices = new int[16]; // Mesh vertex of every OBJ vertex
+        int objVertexCount = 0;
+        SharedVertices sharedVertices = new SharedVertices(mesh, 0);
 
         File file = new File(filename);
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             while ((line = reader.readLine()) != null) {
                 linesCount++;
                 if (line.startsWith("//") || line.startsWith("#") || line.trim().isEmpty()) {
@@ -94,28 +212,141 @@ public class MeshReader {
                 //    throw new IOException(filename + ", line " + linesCount + ": Invalid data");
                 //}
 
-                vec3d = new Vec3D();
-
                 if (splittedLine[0].equals("v")) {
-                    vec3d.setX(Double.parseDouble(splittedLine[1]));
-                    vec3d.setY(Double.parseDouble(splittedLine[2]));
-                    vec3d.setZ(Double.parseDouble(splittedLine[3]));
-
-                    verts.add(vec3d);
+                    if (objVertexCount == vertexIndices.length) {
+                        vertexIndices = Arrays.copyOf(vertexIndices, 2 * vertexIndices.length);
+                    }
+                    vertexIndices[objVertexCount++] = sharedVertices.add(
+                            Double.parseDouble(splittedLine[1]),
+                            Double.parseDouble(splittedLine[2]),
+                            Double.parseDouble(splittedLine[3])
+                    );
                 } else if (splittedLine[0].equals("f")) {
                     f[0] = Integer.parseInt(splittedLine[1]);
                     f[1] = Integer.parseInt(splittedLine[2]);
                     f[2] = Integer.parseInt(splittedLine[3]);
                     for (int i = 0; i < 3; i++) {
-                        triangleVecs[i] = verts.get(f[i] - 1);
+                        // OBJ indices start from 1
+                        if (f[i] < 1 || f[i] > objVertexCount) {
+                            throw new IOException(filename + ", line " + linesCount + ": Invalid vertex index");
+                        }
+                        f[i] = vertexIndices[f[i] - 1];
                     }
-                    mesh.addTriangle(new Triangle(triangleVecs.clone()));
+                    mesh.addTriangle(f[0], f[1], f[2]);
                 }
             }
-        } catch (IOException | NumberFormatException e) {
+        } catch (IOException | IllegalArgumentException e) {
             e.printStackTrace();
             return null;
         }
         return mesh;
     }
+
+    private Mesh loadCached(String filename) {
+        return cache != null ? cache.load(filename) : null;
+    }
+
+    // Load-time processing of a complete mesh, the result is cached
+    private Mesh prepare(String filename, Mesh mesh) {
+        if (mesh == null) {
+            return null;
+        }
+        mesh.computeVertexNormals();
+        mesh.buildBvh();
+        mesh.computeBoundingSphere();
+        mesh.buildLods();
+        if (cache != null) {
+            cache.store(filename, mesh);
+        }
+        return mesh;
+    }
+
+    // Welds a whole array of vertices, returns the mesh vertex of every vertex
+    int[] weldVertices(Mesh mesh, double[] vertices, int count) {
+        int[] meshVertices = new int[count];
+        SharedVertices sharedVertices = new SharedVertices(mesh, count);
+        for (int i = 0; i < count; i++) {
+            meshVertices[i] = sharedVertices.add(vertices[3 * i], vertices[3 * i + 1], vertices[3 * i + 2]);
+        }
+        return meshVertices;
+    }
+
+    // Vertices with exactly the same coordinates (e.g. on the seams of OBJ models) are stored once,
+    // so that triangles meeting there share the vertex and its Gouraud shading
+    // Open-addressing table of the mesh's vertices, kept at most half full
+    private static class SharedVertices {
+        private final Mesh mesh;
+        private int[] table; // Mesh vertex with the coordinates, -1 for free slots
+        private int shift; // Leaves as many high bits of the hash as the slots need
+        private int count = 0;
+
+        private SharedVertices(Mesh mesh, int expectedCount) {
+            this.mesh = mesh;
+            allocate(Integer.highestOneBit(Math.max(2 * expectedCount, 1)) * 2);
+        }
+
+        // Returns the mesh vertex with the coordinates, adding it if there is none
+        private int add(double x, double y, double z) {
+            if (2 * (count + 1) > table.length) {
+                grow();
+            }
+            int slot = find(x, y, z);
+            if (table[slot] == -1) {
+                table[slot] = mesh.addVertex(x, y, z);
+                count++;
+            }
+            return table[slot];
+        }
+
+        // Slot of the vertex with the coordinates, or the free slot it would take
+        private int find(double x, double y, double z) {
+            double[] positions = mesh.getPositions();
+            int mask = table.length - 1;
+            // Adding 0.0 turns -0.0 into 0.0, which would have different bits
+            int slot = (int) (hashPosition(x + 0.0, y + 0.0, z + 0.0) >>> shift);
+            while (table[slot] != -1) {
+                int v = table[slot];
+                if (positions[3 * v] == x && positions[3 * v + 1] == y && positions[3 * v + 2] == z) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldTable = table;
+            allocate(2 * oldTable.length);
+            double[] positions = mesh.getPositions();
+            for (int v : oldTable) {
+                if (v != -1) {
+                    table[find(positions[3 * v], positions[3 * v + 1], positions[3 * v + 2])] = v;
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            table = new int[capacity];
+            Arrays.fill(table, -1);
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+    }
+
+    // Coordinates of a regular grid differ only in a few high bits of their doubles, e.g. the exponent and the top of
+    // the mantissa. Each one goes through the full 64-bit finalizer of MurmurHash3, so that every bit of the
+    // coordinates affects the high bits the slot is taken from
+    private static long hashPosition(double x, double y, double z) {
+        long hash = fmix64(Double.doubleToLongBits(x));
+        hash = fmix64(hash ^ Double.doubleToLongBits(y));
+        return fmix64(hash ^ Double.doubleToLongBits(z));
+    }
+
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
 }
@@ -0,0 +1,402 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Mesh simplification by edge collapses ordered by the quadric error metric (Garland & Heckbert)
+// Every vertex keeps a quadric -- the sum of squared distances to the planes of its original triangles -- and the edge
+// whose collapse moves the merged vertex the least away from those planes is collapsed first
+public class MeshSimplifier {
+    private static final double BOUNDARY_WEIGHT = 1000.0; // Keeps the open edges of a mesh in place
+    private static final double SINGULAR_EPS = 1e-10; // Relative to the scale of the quadric
+
+    private final double[] positions;
+    private final int[] indices;
+    private final int[] colors;
+    private final int vertexCount;
+    private final int triangleCount;
+
+    private final double[] quadrics; // a^2, ab, ac, ad, b^2, bc, bd, c^2, cd, d^2 of every vertex
+    private final boolean[] removedVertices;
+    private final boolean[] removedTriangles;
+    private final int[] versions; // Changes whenever a vertex moves, invalidating the queued collapses using it
+    private int[][] vertexTriangles; // Triangles using every vertex, may contain removed ones
+    private int[] vertexTriangleCounts;
+    private int liveTriangles;
+
+    private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+    private final double[] candidate = new double[3];
+    private final double[] flipPositions = new double[9];
+
+    private MeshSimplifier(Mesh mesh) {
+        vertexCount = mesh.getVertexCount();
+        triangleCount = mesh.getTriangleCount();
+        positions = Arrays.copyOf(mesh.getPositions(), 3 * vertexCount);
+        indices = Arrays.copyOf(mesh.getIndices(), 3 * triangleCount);
+        colors = Arrays.copyOf(mesh.getColors(), triangleCount);
+
+        quadrics = new double[10 * vertexCount];
+        removedVertices = new boolean[vertexCount];
+        removedTriangles = new boolean[triangleCount];
+        versions = new int[vertexCount];
+        liveTriangles = triangleCount;
+    }
+
+    // Returns a new mesh with at most targetTriangleCount triangles, or as close to it as the collapses allow
+    public static Mesh simplify(Mesh mesh, int targetTriangleCount) {
+        MeshSimplifier simplifier = new MeshSimplifier(mesh);
+        simplifier.buildAdjacency();
+        simplifier.computeQuadrics();
+        simplifier.queueAllEdges();
+        simplifier.collapseUntil(targetTriangleCount);
+        return simplifier.toMesh();
+    }
+
+    private void buildAdjacency() {
+        vertexTriangleCounts = new int[vertexCount];
+        for (int i = 0; i < 3 * triangleCount; i++) {
+            vertexTriangleCounts[indices[i]]++;
+        }
+        vertexTriangles = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexTriangles[v] = new int[Math.max(4, vertexTriangleCounts[v])];
+            vertexTriangleCounts[v] = 0;
+        }
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                addVertexTriangle(indices[3 * t + k], t);
+            }
+        }
+    }
+
+    private void addVertexTriangle(int v, int t) {
+        if (vertexTriangleCounts[v] == vertexTriangles[v].length) {
+            vertexTriangles[v] = Arrays.copyOf(vertexTriangles[v], 2 * vertexTriangles[v].length);
+        }
+        vertexTriangles[v][vertexTriangleCounts[v]++] = t;
+    }
+
+    private void computeQuadrics() {
+        // Edges used by a single triangle lie on the boundary of the mesh
+        Map<Long, Integer> edgeUses = new HashMap<>();
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                edgeUses.merge(edgeKey(indices[3 * t + k], indices[3 * t + (k + 1) % 3]), 1, Integer::sum);
+            }
+        }
+
+        for (int t = 0; t < triangleCount; t++) {
+            int i0 = indices[3 * t];
+            int i1 = indices[3 * t + 1];
+            int i2 = indices[3 * t + 2];
+            double line1X = positions[3 * i1] - positions[3 * i0];
+            double line1Y = positions[3 * i1 + 1] - positions[3 * i0 + 1];
+            double line1Z = positions[3 * i1 + 2] - positions[3 * i0 + 2];
+            double line2X = positions[3 * i2] - positions[3 * i0];
+            double line2Y = positions[3 * i2 + 1] - positions[3 * i0 + 1];
+            double line2Z = positions[3 * i2 + 2] - positions[3 * i0 + 2];
+            double nX = line1Y * line2Z - line1Z * line2Y;
+            double nY = line1Z * line2X - line1X * line2Z;
+            double nZ = line1X * line2Y - line1Y * line2X;
+            double length = Math.sqrt(nX * nX + nY * nY + nZ * nZ);
+            if (length < Util.EPS) {
+                continue;
+            }
+            nX /= length;
+            nY /= length;
+            nZ /= length;
+
+            // Planes are weighted by the triangle's area
+            double area = 0.5 * length;
+            double d = -(nX * positions[3 * i0] + nY * positions[3 * i0 + 1] + nZ * positions[3 * i0 + 2]);
+            for (int k = 0; k < 3; k++) {
+                addPlane(indices[3 * t + k], nX, nY, nZ, d, area);
+            }
+
+            // A plane through every boundary edge, perpendicular to the triangle, keeps the edge from moving inwards
+            for (int k = 0; k < 3; k++) {
+                int a = indices[3 * t + k];
+                int b = indices[3 * t + (k + 1) % 3];
+                if (edgeUses.get(edgeKey(a, b)) != 1) {
+                    continue;
+                }
+                double edgeX = positions[3 * b] - positions[3 * a];
+                double edgeY = positions[3 * b + 1] - positions[3 * a + 1];
+                double edgeZ = positions[3 * b + 2] - positions[3 * a + 2];
+                double pX = edgeY * nZ - edgeZ * nY;
+                double pY = edgeZ * nX - edgeX * nZ;
+                double pZ = edgeX * nY - edgeY * nX;
+                double pLength = Math.sqrt(pX * pX + pY * pY + pZ * pZ);
+                if (pLength < Util.EPS) {
+                    continue;
+                }
+                pX /= pLength;
+                pY /= pLength;
+                pZ /= pLength;
+                double pD = -(pX * positions[3 * a] + pY * positions[3 * a + 1] + pZ * positions[3 * a + 2]);
+                double weight = BOUNDARY_WEIGHT * pLength * pLength;
+                addPlane(a, pX, pY, pZ, pD, weight);
+                addPlane(b, pX, pY, pZ, pD, weight);
+            }
+        }
+    }
+
+    private static long edgeKey(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    private void addPlane(int v, double a, double b, double c, double d, double weight) {
+        int q = 10 * v;
+        quadrics[q] += weight * a * a;
+        quadrics[q + 1] += weight * a * b;
+        quadrics[q + 2] += weight * a * c;
+        quadrics[q + 3] += weight * a * d;
+        quadrics[q + 4] += weight * b * b;
+        quadrics[q + 5] += weight * b * c;
+        quadrics[q + 6] += weight * b * d;
+        quadrics[q + 7] += weight * c * c;
+        quadrics[q + 8] += weight * c * d;
+        quadrics[q + 9] += weight * d * d;
+    }
+
+    private void queueAllEdges() {
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int a = indices[3 * t + k];
+                int b = indices[3 * t + (k + 1) % 3];
+                // Every interior edge is shared by two triangles, queue it once
+                if (a < b || !hasEdge(b, a)) {
+                    queueCollapse(a, b);
+                }
+            }
+        }
+    }
+
+    // Whether any triangle has the directed edge a -> b
+    private boolean hasEdge(int a, int b) {
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+            for (int k = 0; k < 3; k++) {
+                if (indices[3 * t + k] == a && indices[3 * t + (k + 1) % 3] == b) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void queueCollapse(int a, int b) {
+        double cost = optimalPosition(a, b, candidate);
+        queue.add(new Collapse(a, b, versions[a], versions[b], cost, candidate[0], candidate[1], candidate[2]));
+    }
+
+    // Writes the position minimising the error of the merged vertex into position, returns the error
+    private double optimalPosition(int a, int b, double[] position) {
+        int qa = 10 * a;
+        int qb = 10 * b;
+        double q0 = quadrics[qa] + quadrics[qb];
+        double q1 = quadrics[qa + 1] + quadrics[qb + 1];
+        double q2 = quadrics[qa + 2] + quadrics[qb + 2];
+        double q3 = quadrics[qa + 3] + quadrics[qb + 3];
+        double q4 = quadrics[qa + 4] + quadrics[qb + 4];
+        double q5 = quadrics[qa + 5] + quadrics[qb + 5];
+        double q6 = quadrics[qa + 6] + quadrics[qb + 6];
+        double q7 = quadrics[qa + 7] + quadrics[qb + 7];
+        double q8 = quadrics[qa + 8] + quadrics[qb + 8];
+
+        // Candidates: both ends, the middle and, when the quadric is not singular, its minimum
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < 4; c++) {
+            double x, y, z;
+            if (c < 3) {
+                double t = 0.5 * c;
+                x = positions[3 * a] + t * (positions[3 * b] - positions[3 * a]);
+                y = positions[3 * a + 1] + t * (positions[3 * b + 1] - positions[3 * a + 1]);
+                z = positions[3 * a + 2] + t * (positions[3 * b + 2] - positions[3 * a + 2]);
+            } else {
+                // Solves the 3x3 system of the gradient being zero with Cramer's rule
+                double det = det3(q0, q1, q2, q1, q4, q5, q2, q5, q7);
+                double scale = q0 + q4 + q7;
+                if (Math.abs(det) <= SINGULAR_EPS * scale * scale * scale) {
+                    break;
+                }
+                x = det3(-q3, q1, q2, -q6, q4, q5, -q8, q5, q7) / det;
+                y = det3(q0, -q3, q2, q1, -q6, q5, q2, -q8, q7) / det;
+                z = det3(q0, q1, -q3, q1, q4, -q6, q2, q5, -q8) / det;
+            }
+            double cost = q0 * x * x + 2 * q1 * x * y + 2 * q2 * x * z + 2 * q3 * x
+                    + q4 * y * y + 2 * q5 * y * z + 2 * q6 * y
+                    + q7 * z * z + 2 * q8 * z
+                    + quadrics[qa + 9] + quadrics[qb + 9];
+            if (cost < bestCost) {
+                bestCost = cost;
+                position[0] = x;
+                position[1] = y;
+                position[2] = z;
+            }
+        }
+        return bestCost;
+    }
+
+    // Determinant of the matrix given row by row
+    private static double det3(double a, double b, double c, double d, double e, double f, double g, double h, double i) {
+        return a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+    }
+
+    private void collapseUntil(int targetTriangleCount) {
+        while (liveTriangles > targetTriangleCount && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            int a = collapse.a;
+            int b = collapse.b;
+            if (removedVertices[a] || removedVertices[b] || versions[a] != collapse.versionA || versions[b] != collapse.versionB) {
+                // One of the vertices changed since the collapse was queued
+                continue;
+            }
+            if (flipsTriangle(a, b, collapse) || flipsTriangle(b, a, collapse)) {
+                continue;
+            }
+            collapse(a, b, collapse);
+        }
+    }
+
+    // Whether moving vertex v to the collapse's position turns any of its triangles not shared with other upside down
+    private boolean flipsTriangle(int v, int other, Collapse collapse) {
+        for (int i = 0; i < vertexTriangleCounts[v]; i++) {
+            int t = vertexTriangles[v][i];
+            if (removedTriangles[t]) {
+                continue;
+            }
+            int i0 = indices[3 * t];
+            int i1 = indices[3 * t + 1];
+            int i2 = indices[3 * t + 2];
+            if (i0 == other || i1 == other || i2 == other) {
+                // Disappears with the collapse
+                continue;
+            }
+
+            double[] p = flipPositions;
+            for (int k = 0; k < 3; k++) {
+                int u = indices[3 * t + k];
+                p[3 * k] = positions[3 * u];
+                p[3 * k + 1] = positions[3 * u + 1];
+                p[3 * k + 2] = positions[3 * u + 2];
+            }
+            double nX = normalX(p), nY = normalY(p), nZ = normalZ(p);
+            for (int k = 0; k < 3; k++) {
+                if (indices[3 * t + k] == v) {
+                    p[3 * k] = collapse.x;
+                    p[3 * k + 1] = collapse.y;
+                    p[3 * k + 2] = collapse.z;
+                }
+            }
+            if (nX * normalX(p) + nY * normalY(p) + nZ * normalZ(p) <= 0.0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double normalX(double[] p) {
+        return (p[4] - p[1]) * (p[8] - p[2]) - (p[5] - p[2]) * (p[7] - p[1]);
+    }
+
+    private static double normalY(double[] p) {
+        return (p[5] - p[2]) * (p[6] - p[0]) - (p[3] - p[0]) * (p[8] - p[2]);
+    }
+
+    private static double normalZ(double[] p) {
+        return (p[3] - p[0]) * (p[7] - p[1]) - (p[4] - p[1]) * (p[6] - p[0]);
+    }
+
+    // Merges b into a
+    private void collapse(int a, int b, Collapse collapse) {
+        positions[3 * a] = collapse.x;
+        positions[3 * a + 1] = collapse.y;
+        positions[3 * a + 2] = collapse.z;
+        for (int i = 0; i < 10; i++) {
+            quadrics[10 * a + i] += quadrics[10 * b + i];
+        }
+        removedVertices[b] = true;
+        versions[a]++;
+
+        for (int i = 0; i < vertexTriangleCounts[b]; i++) {
+            int t = vertexTriangles[b][i];
+            if (removedTriangles[t]) {
+                continue;
+            }
+            if (indices[3 * t] == a || indices[3 * t + 1] == a || indices[3 * t + 2] == a) {
+                removedTriangles[t] = true;
+                liveTriangles--;
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                if (indices[3 * t + k] == b) {
+                    indices[3 * t + k] = a;
+                }
+            }
+            addVertexTriangle(a, t);
+        }
+
+        // The cost of every edge from the moved vertex changed, its old collapses are invalidated by the new version
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+            if (removedTriangles[t]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                if (indices[3 * t + k] == a) {
+                    queueCollapse(a, indices[3 * t + (k + 1) % 3]);
+                    queueCollapse(a, indices[3 * t + (k + 2) % 3]);
+                }
+            }
+        }
+    }
+
+    private Mesh toMesh() {
+        Mesh mesh = new Mesh();
+        int[] newVertexIds = new int[vertexCount];
+        Arrays.fill(newVertexIds, -1);
+        for (int t = 0; t < triangleCount; t++) {
+            if (removedTriangles[t]) {
+                continue;
+            }
+            int[] v = new int[3];
+            for (int k = 0; k < 3; k++) {
+                int old = indices[3 * t + k];
+                if (newVertexIds[old] == -1) {
+                    newVertexIds[old] = mesh.addVertex(positions[3 * old], positions[3 * old + 1], positions[3 * old + 2]);
+                }
+                v[k] = newVertexIds[old];
+            }
+            mesh.addTriangle(v[0], v[1], v[2], colors[t]);
+        }
+        return mesh;
+    }
+
+    private static class Collapse implements Comparable<Collapse> {
+        private final int a;
+        private final int b;
+        private final int versionA;
+        private final int versionB;
+        private final double cost;
+        private final double x;
+        private final double y;
+        private final double z;
+
+        Collapse(int a, int b, int versionA, int versionB, double cost, double x, double y, double z) {
+            this.a = a;
+            this.b = b;
+            this.versionA = versionA;
+            this.versionB = versionB;
+            this.cost = cost;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+// Microbenchmarks of the math primitives and of the per-triangle transform path
+// Every benchmark reports time per operation and allocated bytes per operation (and the resulting gc.alloc.rate),
+// so that changes can be checked for how much garbage they actually produce per frame
+// Usage: MicroBenchmarks [name filter]
+public class MicroBenchmarks {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 10;
+    private static final long ITERATION_TIME_NS = 500_000_000L;
+
+    private static final String[] MESH_FILENAMES = {"teapot.obj", "cow.obj", "spot.obj"};
+    private static final int GRID_SIDE = 64; // Vertices along every axis of the welded grid
+    private static final String[] OBJ_FILENAMES = {"cat.obj", "cow.obj", "spot.obj", "teapot.obj", "sphere.obj", "simpleSphere.obj"};
+
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Results are consumed here, so that the JIT cannot eliminate the benchmarked code
+    private static volatile double sink;
+
+    private interface Benchmark {
+        double run();
+    }
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+
+        Matrix worldMatrix = Matrix.mult(Matrix.makeRotationY(0.5), Matrix.makeTranslation(0.0, 0.0, 3.0));
+        Matrix projectionMatrix = Matrix.makeProjection(70.0, 0.75, 0.1, 1000);
+        Vec3D vec = new Vec3D(0.3, -1.2, 2.5);
+        Vec3D position = new Vec3D(0.1, 0.2, -1.0);
+        Vec3D target = new Vec3D(0.2, 0.2, 0.0);
+        Vec3D up = new Vec3D(0, 1, 0);
+        Triangle triangle = new Triangle(new Vec3D[]{new Vec3D(0, 0, 0), new Vec3D(0, 1, 0), new Vec3D(1, 1, 0)});
+
+        System.out.printf("%-48s %24s %14s %16s%n", "Benchmark", "ns/op", "B/op", "gc.alloc.rate");
+
+        run(filter, "Vec3D.multMatrixVector", () -> Vec3D.multMatrixVector(worldMatrix, vec).getX());
+        run(filter, "Matrix.mult", () -> Matrix.mult(worldMatrix, projectionMatrix).get(3, 2));
+        Vec3D vecDest = new Vec3D();
+        Matrix matrixDest = new Matrix();
+        run(filter, "Vec3D.multMatrixVector (dest)", () -> Vec3D.multMatrixVector(worldMatrix, vec, vecDest).getX());
+        run(filter, "Matrix.mult (dest)", () -> Matrix.mult(worldMatrix, projectionMatrix, matrixDest).get(3, 2));
+        Matrix viewMatrix = Matrix.quickInverse(Matrix.makePointAtMatrix(position, target, up));
+        run(filter, "Matrix.mult world*view*projection", () -> Matrix.mult(worldMatrix, viewMatrix, projectionMatrix, matrixDest).get(3, 2));
+        run(filter, "Matrix.makePointAtMatrix+quickInverse", () -> Matrix.quickInverse(Matrix.makePointAtMatrix(position, target, up)).get(3, 0));
+        run(filter, "Triangle.clone", () -> triangle.clone().getVecs()[2].getX());
+
+        MeshReader meshReader = new MeshReader();
+        // Parsing only, the load-time processing is the same for both readers
+        for (String filename : OBJ_FILENAMES) {
+            run(filter, "MeshReader.parseObjFile " + filename, () -> meshReader.parseObjFile(filename).getTriangleCount());
+            run(filter, "MeshReader.parseObjFileBuffered " + filename, () -> meshReader.parseObjFileBuffered(filename).getTriangleCount());
+        }
+        // Axis-aligned integer grid, every vertex twice as at the seams of OBJ models. Such coordinates differ in few
+        // bits, which a weak hash maps to clustered slots
+        double[] gridVertices = new double[6 * GRID_SIDE * GRID_SIDE * GRID_SIDE];
+        for (int i = 0; i < 2 * GRID_SIDE * GRID_SIDE * GRID_SIDE; i++) {
+            int v = i % (GRID_SIDE * GRID_SIDE * GRID_SIDE);
+            gridVertices[3 * i] = v % GRID_SIDE;
+            gridVertices[3 * i + 1] = v / GRID_SIDE % GRID_SIDE;
+            gridVertices[3 * i + 2] = v / (GRID_SIDE * GRID_SIDE);
+        }
+        run(filter, "MeshReader.weldVertices grid " + GRID_SIDE + "^3", () -> {
+            Mesh mesh = new Mesh(GRID_SIDE * GRID_SIDE * GRID_SIDE, 0);
+            return meshReader.weldVertices(mesh, gridVertices, gridVertices.length / 3)[gridVertices.length / 3 - 1];
+        });
+        for (String filename : MESH_FILENAMES) {
+            if (!("Matrix.transformAll " + filename).contains(filter)) {
+                continue;
+            }
+            Mesh mesh = meshReader.readFromObjFile(filename);
+            double[] transformed = new double[4 * mesh.getVertexCount()];
+            run(filter, "Matrix.transformAll " + filename, () -> {
+                Matrix.transformAll(worldMatrix, mesh.getPositions(), transformed, mesh.getVertexCount());
+                return transformed[0];
+            });
+        }
+        for (String filename : MESH_FILENAMES) {
+            if (!("Renderer.update " + filename).contains(filter)) {
+                continue;
+            }
+            Renderer renderer = new Renderer(800, 600);
+            renderer.getScene().addChild(new SceneNode(meshReader.readFromObjFile(filename)));
+            renderer.setRotYactive(true);
+            double[] angle = {0.0};
+            run(filter, "Renderer.update " + filename, () -> {
+                angle[0] += 0.01;
+                renderer.update(angle[0]);
+                return renderer.getProjectedTriangles().size();
+            });
+        }
+    }
+
+    private static void run(String filter, String name, Benchmark benchmark) {
+        if (!name.contains(filter)) {
+            return;
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(benchmark);
+        }
+
+        double[] nsPerOp = new double[MEASUREMENT_ITERATIONS];
+        long totalOps = 0;
+        long totalBytes = 0;
+        long totalTime = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            long[] result = iteration(benchmark);
+            nsPerOp[i] = (double) result[1] / result[0];
+            totalOps += result[0];
+            totalTime += result[1];
+            totalBytes += result[2];
+        }
+
+        double mean = Arrays.stream(nsPerOp).average().orElse(0.0);
+        double variance = Arrays.stream(nsPerOp).map(v -> (v - mean) * (v - mean)).sum() / (MEASUREMENT_ITERATIONS - 1);
+        double bytesPerOp = (double) totalBytes / totalOps;
+        double allocRate = totalBytes / (totalTime / 1e9) / (1024 * 1024);
+
+        System.out.printf("%-48s %24s %14s %11s MB/s%n", name,
+                Util.round(mean, 2) + " +- " + Util.round(Math.sqrt(variance), 2),
+                Util.round(bytesPerOp, 1),
+                Util.round(allocRate, 1));
+    }
+
+    // Returns {operations, elapsed ns, allocated bytes}
+    // Allocation is summed over all threads, as the renderer runs parts of a frame on its worker pool. Its threads
+    // are started during the warm-up, so threads started later are not counted
+    private static long[] iteration(Benchmark benchmark) {
+        long[] threadIds = threadMXBean.getAllThreadIds();
+        long ops = 0;
+        double acc = 0.0;
+
+        long[] bytesBefore = threadMXBean.getThreadAllocatedBytes(threadIds);
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            // Check the clock once per batch, so that System.nanoTime() does not dominate the cheap operations
+            for (int i = 0; i < 64; i++) {
+                acc += benchmark.run();
+            }
+            ops += 64;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_TIME_NS);
+        long[] bytesAfter = threadMXBean.getThreadAllocatedBytes(threadIds);
+
+        long bytes = 0;
+        for (int i = 0; i < threadIds.length; i++) {
+            // -1 for threads that are not alive (any more)
+            if (bytesBefore[i] >= 0 && bytesAfter[i] >= 0) {
+                bytes += bytesAfter[i] - bytesBefore[i];
+            }
+        }
+        sink = acc;
+        return new long[]{ops, elapsed, bytes};
+    }
+}
@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Parser of the OBJ format working directly on the bytes of a buffer (usually a memory-mapped file)
+// Reads the "v" and "f" lines into primitive arrays without creating a String per line or token,
+// all other lines (comments, groups, texture coordinates, ...) are skipped
+// A parser reads one line-aligned chunk of the buffer, so that the chunks of a large file can be parsed in parallel.
+// Face indices are kept as written in the file and resolved when the chunks are merged (see MeshReader)
+public class ObjParser {
+    // Integers up to 2^53 and powers of ten up to 10^22 are exact doubles, so a single multiplication or division
+    // of them is correctly rounded and gives the same result as Double.parseDouble
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final ByteBuffer buffer;
+    private final String filename; // For error messages
+    private final int start;
+    private final int end;
+    private int position;
+
+    private double[] vertices = new double[3 * 16]; // x, y, z of every vertex of the chunk
+    private int vertexCount = 0;
+    private int[] triangles = new int[3 * 16]; // 3 OBJ vertex indices of every triangle, polygons are split into fans
+    private int[] relativeBases; // Vertices of the chunk read before every triangle with a negative index, null until one is met
+    private int triangleCount = 0;
+
+    public ObjParser(ByteBuffer buffer, int start, int end, String filename) {
+        this.buffer = buffer;
+        this.filename = filename;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+    }
+
+    // Splits the buffer into at most the given number of chunks of about the same size, ending at line ends
+    public static ObjParser[] split(ByteBuffer buffer, int chunkCount, String filename) {
+        ObjParser[] parsers = new ObjParser[chunkCount];
+        int start = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            int end = i == chunkCount - 1 ? buffer.limit() : (int) ((long) buffer.limit() * (i + 1) / chunkCount);
+            end = Math.max(end, start);
+            while (end > 0 && end < buffer.limit() && buffer.get(end - 1) != '\n') {
+                end++;
+            }
+            // Every parser gets its own view of the buffer, reads are not shared between threads
+            parsers[i] = new ObjParser(buffer.duplicate(), start, end, filename);
+            start = end;
+        }
+        return parsers;
+    }
+
+    public void parse() throws IOException {
+        parse(Integer.MAX_VALUE);
+    }
+
+    // Parses the chunk up to the line of the given triangle, returns the position of that line or -1
+    private int parse(int lastTriangle) throws IOException {
+        while (position < end) {
+            int lineStart = position;
+            skipSpaces();
+            if (position < end) {
+                byte b = buffer.get(position);
+                if (b == 'v' && isSeparator(position + 1)) {
+                    position++;
+                    addVertex(parseDouble(), parseDouble(), parseDouble());
+                } else if (b == 'f' && isSeparator(position + 1)) {
+                    position++;
+                    parseFace();
+                    if (triangleCount > lastTriangle) {
+                        return lineStart;
+                    }
+                }
+            }
+            skipLine();
+        }
+        return -1;
+    }
+
+    // Line of a triangle in the whole file, for error messages. Scans the chunk again
+    public int findTriangleLine(int triangle) throws IOException {
+        ObjParser parser = new ObjParser(buffer, start, end, filename);
+        return lineAt(parser.parse(triangle));
+    }
+
+    private void addVertex(double x, double y, double z) {
+        if (3 * vertexCount == vertices.length) {
+            vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+        }
+        vertices[3 * vertexCount] = x;
+        vertices[3 * vertexCount + 1] = y;
+        vertices[3 * vertexCount + 2] = z;
+        vertexCount++;
+    }
+
+    private void parseFace() throws IOException {
+        int first = parseIndex();
+        int previous = parseIndex();
+        do {
+            int index = parseIndex();
+            addTriangle(first, previous, index);
+            previous = index;
+            skipSpaces();
+        } while (position < end && (buffer.get(position) == '-' || isDigit(position)));
+    }
+
+    private void addTriangle(int v0, int v1, int v2) {
+        if (3 * triangleCount == triangles.length) {
+            triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+            if (relativeBases != null) {
+                relativeBases = Arrays.copyOf(relativeBases, triangles.length / 3);
+            }
+        }
+        triangles[3 * triangleCount] = v0;
+        triangles[3 * triangleCount + 1] = v1;
+        triangles[3 * triangleCount + 2] = v2;
+        if (v0 < 0 || v1 < 0 || v2 < 0) {
+            if (relativeBases == null) {
+                relativeBases = new int[triangles.length / 3];
+            }
+            relativeBases[triangleCount] = vertexCount;
+        }
+        triangleCount++;
+    }
+
+    private double parseDouble() throws IOException {
+        skipSpaces();
+        int tokenStart = position;
+        boolean negative = false;
+        if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+            negative = buffer.get(position) == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean exact = true;
+        boolean fraction = false;
+        while (position < end) {
+            byte b = buffer.get(position);
+            if (b >= '0' && b <= '9') {
+                if (mantissa < MAX_EXACT_MANTISSA) {
+                    mantissa = 10 * mantissa + (b - '0');
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else {
+                    exact = false;
+                }
+                digits++;
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (digits == 0) {
+            throw new IOException(filename + ", line " + lineAt(position) + ": Invalid number");
+        }
+
+        if (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negativeExponent = buffer.get(position) == '-';
+                position++;
+            }
+            int e = 0;
+            int exponentDigits = 0;
+            while (position < end && buffer.get(position) >= '0' && buffer.get(position) <= '9') {
+                e = Math.min(10 * e + (buffer.get(position) - '0'), 100_000);
+                exponentDigits++;
+                position++;
+            }
+            if (exponentDigits == 0) {
+                throw new IOException(filename + ", line " + lineAt(position) + ": Invalid number");
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (!isSeparator(position)) {
+            throw new IOException(filename + ", line " + lineAt(position) + ": Invalid number");
+        }
+
+        if (!exact || mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            // Rare in models (very long or very large/small numbers), leave the exact rounding to the JDK
+            return Double.parseDouble(new String(token(tokenStart), StandardCharsets.US_ASCII));
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    // Returns the vertex index as written: counted from 1, or from -1 backwards from the last vertex read
+    // The texture coordinate and normal indices of the v/vt/vn forms are skipped
+    private int parseIndex() throws IOException {
+        skipSpaces();
+        boolean negative = false;
+        if (position < end && buffer.get(position) == '-') {
+            negative = true;
+            position++;
+        }
+        long index = 0;
+        int digits = 0;
+        while (isDigit(position)) {
+            index = Math.min(10 * index + (buffer.get(position) - '0'), Integer.MAX_VALUE);
+            digits++;
+            position++;
+        }
+        if (position < end && buffer.get(position) == '/') {
+            while (!isSeparator(position)) {
+                position++;
+            }
+        }
+        if (digits == 0 || !isSeparator(position)) {
+            throw new IOException(filename + ", line " + lineAt(position) + ": Invalid data");
+        }
+        if (index == 0) {
+            throw new IOException(filename + ", line " + lineAt(position) + ": Invalid vertex index");
+        }
+        return negative ? (int) -index : (int) index;
+    }
+
+    private byte[] token(int tokenStart) {
+        byte[] bytes = new byte[position - tokenStart];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(tokenStart + i);
+        }
+        return bytes;
+    }
+
+    // Whitespace within a line
+    private void skipSpaces() {
+        while (position < end) {
+            byte b = buffer.get(position);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                break;
+            }
+            position++;
+        }
+    }
+
+    // Moves to the beginning of the next line
+    private void skipLine() {
+        while (position < end && buffer.get(position) != '\n') {
+            position++;
+        }
+        if (position < end) {
+            position++;
+        }
+    }
+
+    // Counted from the beginning of the buffer, only needed for error messages
+    private int lineAt(int i) {
+        int line = 1;
+        for (int j = 0; j < i; j++) {
+            if (buffer.get(j) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    private boolean isDigit(int i) {
+        return i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9';
+    }
+
+    private boolean isSeparator(int i) {
+        if (i >= end) {
+            return true;
+        }
+        byte b = buffer.get(i);
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    public double[] getVertices() {
+        return vertices;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int[] getTriangles() {
+        return triangles;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    // Number of vertices of the chunk read before a triangle with a negative (relative) index
+    public int getRelativeBase(int triangle) {
+        return relativeBases[triangle];
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+}
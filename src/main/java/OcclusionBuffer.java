@@ -0,0 +1,246 @@
+import java.util.Arrays;
+
+// Software depth buffer for occlusion culling
+// Large occluders drawn earlier in the frame are rasterized into it, keeping for every pixel a view depth the nearest
+// occluder there is certainly not behind. The pixels are sampled like ZBufferRasterizer samples them, only a little
+// inside the triangles, so that every pixel counted as covered is also drawn by the occluder. A pyramid of cells,
+// the finest keeping the maximum depth of CELL_SIZE x CELL_SIZE pixels and every other one the maximum of 2x2 cells
+// of the level below, lets the screen rectangle of a mesh or BVH node be tested against a few cells: it is hidden
+// if it is behind all of them
+// Depths are view-space distances along the view direction (w in clip space)
+public class OcclusionBuffer {
+    private static final int CELL_SIZE = 4; // Pixels per cell side at the finest level
+    private static final double NEAR = 0.1; // Boxes reaching closer to the camera are never considered hidden
+    private static final double MIN_WEIGHT = 1e-6; // Barycentric weight of a covered pixel, leaves room for rounding
+
+    private final int width;
+    private final int height;
+    private final float[] depths; // Rasterized occluders for every pixel, +infinity where nothing is drawn
+    private final float[][] levels; // Maximum depth pyramid, level 0 has one cell per CELL_SIZE x CELL_SIZE pixels
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+    private boolean empty = true;
+    private boolean pyramidValid = false;
+    // Pixels changed since the pyramid was built, only the cells over them are built again
+    private int dirtyMinX;
+    private int dirtyMinY;
+    private int dirtyMaxX;
+    private int dirtyMaxY;
+    private int occludedCount = 0; // Successful tests since the last clear
+
+    public OcclusionBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        depths = new float[width * height];
+        int levelWidth = (width + CELL_SIZE - 1) / CELL_SIZE;
+        int levelHeight = (height + CELL_SIZE - 1) / CELL_SIZE;
+
+        int levelCount = 1;
+        while ((levelWidth >> levelCount - 1) > 1 || (levelHeight >> levelCount - 1) > 1) {
+            levelCount++;
+        }
+        levels = new float[levelCount][];
+        levelWidths = new int[levelCount];
+        levelHeights = new int[levelCount];
+        for (int level = 0; level < levelCount; level++) {
+            levelWidths[level] = levelWidth;
+            levelHeights[level] = levelHeight;
+            levels[level] = new float[levelWidth * levelHeight];
+            levelWidth = (levelWidth + 1) / 2;
+            levelHeight = (levelHeight + 1) / 2;
+        }
+        Arrays.fill(depths, Float.POSITIVE_INFINITY);
+        resetDirty();
+    }
+
+    public void clear() {
+        // Nothing to undo if no occluder was drawn
+        if (!empty) {
+            Arrays.fill(depths, Float.POSITIVE_INFINITY);
+        }
+        empty = true;
+        pyramidValid = false;
+        dirtyMinX = 0;
+        dirtyMinY = 0;
+        dirtyMaxX = width - 1;
+        dirtyMaxY = height - 1;
+        occludedCount = 0;
+    }
+
+    // Screen-space triangle in pixels, covering the pixels whose centres it contains at no more than the given depth
+    public void rasterize(Vec3D a, Vec3D b, Vec3D c, double depth) {
+        double x0 = a.getX(), y0 = a.getY();
+        double x1 = b.getX(), y1 = b.getY();
+        double x2 = c.getX(), y2 = c.getY();
+        double area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+        if (Math.abs(area) < Util.EPS) {
+            return;
+        }
+        // Weights of the vertices as computed by ZBufferRasterizer, positive inside whatever the winding
+        double invArea = 1.0 / area;
+        int minX = (int) Math.max(0, Math.floor(Math.min(x0, Math.min(x1, x2))));
+        int maxX = (int) Math.min(width - 1, Math.ceil(Math.max(x0, Math.max(x1, x2))));
+        int minY = (int) Math.max(0, Math.floor(Math.min(y0, Math.min(y1, y2))));
+        int maxY = (int) Math.min(height - 1, Math.ceil(Math.max(y0, Math.max(y1, y2))));
+        float d = (float) depth;
+
+        for (int y = minY; y <= maxY; y++) {
+            double py = y + 0.5;
+            for (int x = minX; x <= maxX; x++) {
+                double px = x + 0.5;
+                // Evaluated anew at every pixel, the rasterizer's stepped weights differ from these by far less
+                // than MIN_WEIGHT
+                double l0 = ((x2 - x1) * (py - y1) - (y2 - y1) * (px - x1)) * invArea;
+                double l1 = ((x0 - x2) * (py - y2) - (y0 - y2) * (px - x2)) * invArea;
+                double l2 = ((x1 - x0) * (py - y0) - (y1 - y0) * (px - x0)) * invArea;
+                if (l0 >= MIN_WEIGHT && l1 >= MIN_WEIGHT && l2 >= MIN_WEIGHT) {
+                    int i = y * width + x;
+                    if (d < depths[i]) {
+                        depths[i] = d;
+                        empty = false;
+                        pyramidValid = false;
+                        dirtyMinX = Math.min(dirtyMinX, x);
+                        dirtyMinY = Math.min(dirtyMinY, y);
+                        dirtyMaxX = Math.max(dirtyMaxX, x);
+                        dirtyMaxY = Math.max(dirtyMaxY, y);
+                    }
+                }
+            }
+        }
+    }
+
+    // Tests a box given in the space the matrix projects from, e.g. object space with the world-view-projection matrix
+    public boolean isOccluded(Matrix m, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        if (empty) {
+            return false;
+        }
+        double[] d = m.getData();
+        double screenMinX = Double.POSITIVE_INFINITY;
+        double screenMinY = Double.POSITIVE_INFINITY;
+        double screenMaxX = Double.NEGATIVE_INFINITY;
+        double screenMaxY = Double.NEGATIVE_INFINITY;
+        double minDepth = Double.POSITIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            double x = (corner & 1) == 0 ? minX : maxX;
+            double y = (corner & 2) == 0 ? minY : maxY;
+            double z = (corner & 4) == 0 ? minZ : maxZ;
+            double clipW = x * d[3] + y * d[7] + z * d[11] + d[15];
+            if (clipW < NEAR) {
+                return false;
+            }
+            double screenX = ((x * d[0] + y * d[4] + z * d[8] + d[12]) / clipW + 1.0) * 0.5 * width;
+            double screenY = (-(x * d[1] + y * d[5] + z * d[9] + d[13]) / clipW + 1.0) * 0.5 * height;
+            screenMinX = Math.min(screenMinX, screenX);
+            screenMinY = Math.min(screenMinY, screenY);
+            screenMaxX = Math.max(screenMaxX, screenX);
+            screenMaxY = Math.max(screenMaxY, screenY);
+            minDepth = Math.min(minDepth, clipW);
+        }
+        if (isOccluded(screenMinX, screenMinY, screenMaxX, screenMaxY, minDepth)) {
+            occludedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    // Screen rectangle in pixels whose every point is at least at minDepth
+    private boolean isOccluded(double minX, double minY, double maxX, double maxY, double minDepth) {
+        // Pixels whose centres can be in the rectangle, with a pixel to spare for the rasterizer's rounding
+        // Only the part on the screen can be visible
+        int minPixelX = (int) Math.max(Math.floor(minX) - 1, 0);
+        int minPixelY = (int) Math.max(Math.floor(minY) - 1, 0);
+        int maxPixelX = (int) Math.min(Math.floor(maxX) + 1, width - 1);
+        int maxPixelY = (int) Math.min(Math.floor(maxY) + 1, height - 1);
+        if (minPixelX > maxPixelX || minPixelY > maxPixelY) {
+            return false;
+        }
+        if (!pyramidValid) {
+            buildPyramid();
+        }
+
+        // The finest level at which the rectangle spans at most 2x2 cells
+        int level = 0;
+        int minI = minPixelX / CELL_SIZE;
+        int minJ = minPixelY / CELL_SIZE;
+        int maxI = maxPixelX / CELL_SIZE;
+        int maxJ = maxPixelY / CELL_SIZE;
+        while ((maxI - minI > 1 || maxJ - minJ > 1) && level + 1 < levels.length) {
+            level++;
+            minI >>= 1;
+            minJ >>= 1;
+            maxI >>= 1;
+            maxJ >>= 1;
+        }
+
+        float[] levelDepths = levels[level];
+        int levelWidth = levelWidths[level];
+        for (int j = minJ; j <= maxJ; j++) {
+            for (int i = minI; i <= maxI; i++) {
+                if (levelDepths[j * levelWidth + i] >= minDepth) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void buildPyramid() {
+        // A cell is covered as far as its least covered pixel (on the screen)
+        int w0 = levelWidths[0];
+        float[] level0 = levels[0];
+        int minI = dirtyMinX / CELL_SIZE;
+        int minJ = dirtyMinY / CELL_SIZE;
+        int maxI = dirtyMaxX / CELL_SIZE;
+        int maxJ = dirtyMaxY / CELL_SIZE;
+        for (int j = minJ; j <= maxJ; j++) {
+            for (int i = minI; i <= maxI; i++) {
+                float max = 0.0f;
+                for (int y = j * CELL_SIZE; y < Math.min((j + 1) * CELL_SIZE, height); y++) {
+                    for (int x = i * CELL_SIZE; x < Math.min((i + 1) * CELL_SIZE, width); x++) {
+                        max = Math.max(max, depths[y * width + x]);
+                    }
+                }
+                level0[j * w0 + i] = max;
+            }
+        }
+
+        for (int level = 1; level < levels.length; level++) {
+            float[] below = levels[level - 1];
+            int belowWidth = levelWidths[level - 1];
+            int belowHeight = levelHeights[level - 1];
+            float[] current = levels[level];
+            minI >>= 1;
+            minJ >>= 1;
+            maxI >>= 1;
+            maxJ >>= 1;
+            for (int j = minJ; j <= maxJ; j++) {
+                for (int i = minI; i <= maxI; i++) {
+                    int i0 = 2 * i;
+                    int j0 = 2 * j;
+                    int i1 = Math.min(i0 + 1, belowWidth - 1);
+                    int j1 = Math.min(j0 + 1, belowHeight - 1);
+                    current[j * levelWidths[level] + i] = Math.max(
+                            Math.max(below[j0 * belowWidth + i0], below[j0 * belowWidth + i1]),
+                            Math.max(below[j1 * belowWidth + i0], below[j1 * belowWidth + i1]));
+                }
+            }
+        }
+        pyramidValid = true;
+        resetDirty();
+    }
+
+    private void resetDirty() {
+        dirtyMinX = width;
+        dirtyMinY = height;
+        dirtyMaxX = -1;
+        dirtyMaxY = -1;
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public int getOccludedCount() {
+        return occludedCount;
+    }
+}
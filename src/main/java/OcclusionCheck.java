@@ -0,0 +1,94 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+// Checks that occlusion culling is conservative: a grid of instances of the mesh is drawn with the z-buffer from
+// random cameras with occlusion culling on and off, and no pixel drawn with it off may be missing or farther with it on
+// Exits with status 1 if any is
+// Usage: OcclusionCheck [mesh file] [cameras]
+public class OcclusionCheck {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int GRID_SIDE = 6;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String filename = args.length > 0 ? args[0] : "cow.obj";
+        int cameras = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        MeshReader meshReader = new MeshReader();
+        Mesh mesh = filename.endsWith(".obj") ? meshReader.readFromObjFile(filename) : meshReader.readMeshFromFile(filename);
+        if (mesh == null) {
+            System.err.println("Cannot read mesh: " + filename);
+            System.exit(1);
+        }
+
+        Renderer culled = createRenderer(mesh);
+        Renderer reference = createRenderer(mesh);
+        reference.toggleOcclusionCulling();
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        float[] culledDepths = new float[WIDTH * HEIGHT];
+
+        Random random = new Random(SEED);
+        long missingPixels = 0;
+        long fartherPixels = 0;
+        long occludedNodes = 0;
+        for (int i = 0; i < cameras; i++) {
+            // In front of the grid and between its instances, looking roughly along it
+            Vec3D position = new Vec3D(6.0 * random.nextDouble() - 3.0, 2.0 * random.nextDouble() - 0.5, 4.0 * random.nextDouble() - 3.0);
+            double yaw = 60.0 * random.nextDouble() - 30.0;
+
+            renderFrame(culled, graphics, position, yaw);
+            occludedNodes += culled.getOccludedNodes();
+            System.arraycopy(culled.getZBufferRasterizer().getDepthBuffer(), 0, culledDepths, 0, culledDepths.length);
+            renderFrame(reference, graphics, position, yaw);
+            float[] referenceDepths = reference.getZBufferRasterizer().getDepthBuffer();
+
+            for (int p = 0; p < culledDepths.length; p++) {
+                if (culledDepths[p] == Float.POSITIVE_INFINITY && referenceDepths[p] != Float.POSITIVE_INFINITY) {
+                    missingPixels++;
+                } else if (culledDepths[p] > referenceDepths[p]) {
+                    fartherPixels++;
+                }
+            }
+        }
+        graphics.dispose();
+        culled.stop();
+        reference.stop();
+
+        System.out.println(filename + ", " + cameras + " cameras: " + occludedNodes + " nodes occluded, "
+                + missingPixels + " pixels missing, " + fartherPixels + " pixels farther");
+        if (missingPixels > 0 || fartherPixels > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Instances of the mesh on a square grid in the XZ plane, as close as they can be without touching
+    private static Renderer createRenderer(Mesh mesh) {
+        Renderer renderer = new Renderer(WIDTH, HEIGHT);
+        renderer.setDrawingMethod(Renderer.Z_BUFFER);
+
+        double extent = 0.0;
+        double[] positions = mesh.getPositions();
+        for (int i = 0; i < 3 * mesh.getVertexCount(); i++) {
+            extent = Math.max(extent, Math.abs(positions[i]));
+        }
+        double spacing = 1.25 * extent;
+        for (int i = 0; i < GRID_SIDE * GRID_SIDE; i++) {
+            SceneNode node = new SceneNode(mesh);
+            node.setTranslation((i % GRID_SIDE - (GRID_SIDE - 1) / 2.0) * spacing, 0.0, (i / GRID_SIDE) * spacing);
+            renderer.getScene().addChild(node);
+        }
+        return renderer;
+    }
+
+    private static void renderFrame(Renderer renderer, Graphics2D graphics, Vec3D position, double yaw) {
+        renderer.getCamera().setPosition(position);
+        renderer.getCamera().setYaw(yaw);
+        renderer.update(0.0);
+        renderer.render(graphics);
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Projected geometry of a single frame: what Renderer.update produces and Renderer.render draws
+// Renderer keeps two of them, so that the next frame can be produced while the previous one is drawn
+public class ProjectedFrame {
+    private final List<Triangle> triangles = new ArrayList<>();
+    private final List<Triangle> trianglePool = new ArrayList<>();
+    private Vec3D[] vertices = new Vec3D[0]; // Screen space vertices of all current meshes, one mesh after another
+    private final List<Vec3D> clippedVertexPool = new ArrayList<>(); // Vertices created by clipping
+    private final Vec3D cameraPosition = new Vec3D(); // Where the frame was projected from, in world space
+    private long number = 0;
+
+    // Projected triangles are reused between frames, so that steady-state frames do not allocate
+    // Their vecs are shared with the other triangles using the same vertices
+    public Triangle getPooledTriangle(int index) {
+        if (index == trianglePool.size()) {
+            trianglePool.add(new Triangle(new Vec3D[3]));
+        }
+        return trianglePool.get(index);
+    }
+
+    public Vec3D getPooledClippedVertex(int index) {
+        if (index == clippedVertexPool.size()) {
+            clippedVertexPool.add(new Vec3D());
+        }
+        return clippedVertexPool.get(index);
+    }
+
+    public void ensureVertexCapacity(int vertexCount) {
+        if (vertices.length >= vertexCount) {
+            return;
+        }
+        int capacity = Math.max(vertexCount, 2 * vertices.length);
+        int oldCapacity = vertices.length;
+        vertices = Arrays.copyOf(vertices, capacity);
+        for (int v = oldCapacity; v < capacity; v++) {
+            vertices[v] = new Vec3D();
+        }
+    }
+
+    public List<Triangle> getTriangles() {
+        return triangles;
+    }
+
+    public Vec3D[] getVertices() {
+        return vertices;
+    }
+
+    public Vec3D getCameraPosition() {
+        return cameraPosition;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public void setNumber(long number) {
+        this.number = number;
+    }
+}
@@ -0,0 +1,1056 @@
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+public class Renderer {
+    public static final String SCANLINE = "alg. skaningowy";
+    public static final String PAINTER = "alg. malarski";
+    public static final String Z_BUFFER = "alg. z-bufora";
+    public static final String TILED_Z_BUFFER = "alg. z-bufora (kafelki)";
+
+    private final int width;
+    private final int height;
+
+    private static final Vec3D LIGHT_SOURCE_POS = new Vec3D(0, 3, 0);
+    private static final Vec3D OFFSET = new Vec3D(1, 1, 0);
+    private static final double FULL_DETAIL_SIZE = 400.0; // Projected diameter in pixels of meshes drawn in full detail
+    private static final int CHUNK_SIZE = 1024; // Vertices or triangles processed by a single task of the transform stage
+    private static final double MIN_OCCLUDER_SIZE = 64.0; // Projected diameter in pixels of meshes used as occluders
+
+    private final Camera camera;
+    // Double-buffered projected geometry: update writes the back frame while render draws the front one,
+    // the two are swapped under frameLock once the back frame is complete
+    private ProjectedFrame frontFrame = new ProjectedFrame();
+    private ProjectedFrame backFrame = new ProjectedFrame();
+    private final Object frameLock = new Object();
+    private final ZBufferRasterizer zBufferRasterizer;
+    private final TiledRasterizer tiledRasterizer;
+    private Edge[] edgeTable = new Edge[0]; // Heads of the edge lists of every scanline
+    // Scanline algorithm data of every triangle of the drawn frame, computed once per frame
+    private Triangle[] scanlineTriangles = new Triangle[0];
+    private double[] depthSlopesX = new double[0]; // Screen-space plane of the triangle: dz/dx and dz/dy
+    private double[] depthSlopesY = new double[0];
+    private double[] rowDepths = new double[0]; // z on the current scanline at x of the first vertex
+    private int[] gouraudOrders = new int[0]; // Vertices of every triangle sorted by y, 3 per triangle
+    private double[] xSlopes = new double[0]; // dx/dy of the edges of every triangle, edge i from vertex i to i + 1
+    private double[] lumSlopes = new double[0]; // Luminance change per scanline of the same edges
+    private final IndexSet activeTriangles = new IndexSet(); // Triangles the current span is inside
+    private final SceneNode scene; // Root of the scene graph, spins the whole scene
+    private final List<SceneNode> meshNodes = new ArrayList<>(); // Nodes of the scene with a mesh, in drawing order
+    private final AtomicBoolean sceneRotationChanged = new AtomicBoolean(true); // Set by the toggles, taken by update
+    private int updatedSceneNodes = 0; // In the last update
+    private ForkJoinPool workerPool; // Shared by the transform stage and the tiled rasterization
+    private int workerCount;
+
+    // Settings are read by render and update, which may run on different threads than the one changing them
+    private volatile boolean drawMesh = false;
+    private volatile boolean scanlineProof = false;
+    private volatile String drawingMethod = SCANLINE;
+    private volatile boolean lodActive = true;
+    private volatile boolean rotXactive = false;
+    private volatile boolean rotYactive = false;
+    private volatile boolean rotZactive = false;
+
+    // Preallocated buffers of the transform pipeline
+    private final Matrix matrixRotX = new Matrix();
+    private final Matrix matrixRotY = new Matrix();
+    private final Matrix matrixRotZ = new Matrix();
+    private final Matrix matrixTranslation = new Matrix();
+    private final Matrix worldMatrixA = new Matrix();
+    private final Matrix worldMatrixB = new Matrix();
+    private final Matrix viewMatrix = new Matrix();
+    private final Matrix projectionMatrix = new Matrix();
+    private final Matrix worldViewProjectionMatrix = new Matrix();
+    private final Vec3D cameraPosition = new Vec3D();
+    private final Vec3D lightSourcePos = new Vec3D();
+
+    // Per-vertex buffers of the vertices of all current meshes, one mesh after another
+    private Vec3D[] projectedVertices = new Vec3D[0]; // Vertices of the back frame
+    private double[] clipPositions = new double[0]; // x, y, z, w before the perspective division (only of one mesh)
+    private double[] lightDirections = new double[0]; // x, y, z of the unit vector towards the light source
+    private int[] outcodes = new int[0]; // TriangleClipper outcodes -- planes the vertex lies outside of
+    private double[] vertexLums = new double[0];
+
+    // Visible triangles of every chunk of the current mesh, written by the chunk's task only and merged in chunk order,
+    // so the projected triangles do not depend on how the tasks were scheduled
+    private int[][] chunkTriangles = new int[0][];
+    private double[][] chunkLuminances = new double[0][];
+    private int[] chunkSizes = new int[0];
+    private final TriangleClipper clipper = new TriangleClipper();
+
+    // Painter's algorithm order
+    private final DepthSorter depthSorter = new DepthSorter();
+    private float[] depthKeys = new float[0];
+    private Triangle[] unsortedTriangles = new Triangle[0];
+
+    // Frustum culling with the meshes' BVHs, ranges of the current mesh left to process
+    private final double[] frustumPlanes = new double[4 * 6]; // In object space
+    private final IndexRanges visibleTriangles = new IndexRanges();
+    private final IndexRanges visibleVertices = new IndexRanges();
+    private final IndexRanges triangleChunks = new IndexRanges();
+    private final IndexRanges vertexPieces = new IndexRanges(); // Visible vertices split into chunk-sized ranges
+    private final IndexRanges vertexChunks = new IndexRanges(); // Groups of vertex pieces, by position
+    private int visitedBvhNodes = 0; // In the last update
+    private int culledTriangles = 0;
+    private int transformedVertices = 0;
+    private int submittedTriangles = 0; // Of the levels of detail selected, culled ones included
+
+    // Occlusion culling: meshes are processed front to back, the large ones are rasterized into a coarse depth buffer
+    // and the meshes and BVH nodes hidden behind them are skipped before the transform stage
+    private final OcclusionBuffer occlusionBuffer;
+    private volatile boolean occlusionCullingActive = true;
+    private long[] nodeOrder = new long[0]; // Distance of every mesh node (float bits) and its index, sorted
+    private final List<SceneNode> sortedMeshNodes = new ArrayList<>();
+    private final Vec3D worldCenter = new Vec3D();
+    private int occludedNodes = 0; // Meshes and BVH nodes, in the last update
+
+    public Renderer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        camera = new Camera();
+        zBufferRasterizer = new ZBufferRasterizer(width, height);
+        workerCount = Runtime.getRuntime().availableProcessors();
+        workerPool = new ForkJoinPool(workerCount);
+        tiledRasterizer = new TiledRasterizer(zBufferRasterizer, workerPool);
+        scene = new SceneNode();
+        occlusionBuffer = new OcclusionBuffer(width, height);
+    }
+
+    // Draws the newest complete frame; may run on a different thread than update
+    public void render(Graphics2D graphics) {
+        synchronized (frameLock) {
+            draw(graphics, frontFrame);
+        }
+    }
+
+    private void draw(Graphics2D graphics, ProjectedFrame frame) {
+        List<Triangle> projectedTriangles = frame.getTriangles();
+        // Read once, so that the whole frame is drawn with the same settings
+        String drawingMethod = this.drawingMethod;
+        boolean drawMesh = this.drawMesh;
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, width, height);
+
+        graphics.setColor(Color.WHITE);
+        if (!projectedTriangles.isEmpty()) {
+            if (drawingMethod.equals(SCANLINE)) {
+                scanlineDraw(graphics, projectedTriangles, frame.getCameraPosition());
+            }
+            if (drawingMethod.equals(Z_BUFFER)) {
+                zBufferDraw(graphics, projectedTriangles);
+            }
+            if (drawingMethod.equals(TILED_Z_BUFFER)) {
+                tiledRasterizer.draw(projectedTriangles);
+                graphics.drawImage(zBufferRasterizer.getImage(), 0, 0, null);
+            }
+            for (Triangle triangle : projectedTriangles) {
+                if (drawingMethod.equals(PAINTER)) {
+                    fillTriangle(graphics, triangle);
+                }
+                if (drawMesh) {
+                    graphics.setColor(Color.WHITE);
+                    drawTriangle(graphics, triangle);
+                }
+            }
+        }
+    }
+
+    private void zBufferDraw(Graphics2D graphics, List<Triangle> projectedTriangles) {
+        zBufferRasterizer.clear();
+        for (Triangle triangle : projectedTriangles) {
+            zBufferRasterizer.drawTriangle(triangle);
+        }
+        graphics.drawImage(zBufferRasterizer.getImage(), 0, 0, null);
+    }
+
+    private void scanlineDraw(Graphics2D graphics, List<Triangle> projectedTriangles, Vec3D cameraPos) {
+        int step = scanlineProof ? 5 : 1;
+        List<Edge> activeEdges = new ArrayList<>();
+        if (edgeTable.length != height) {
+            edgeTable = new Edge[height];
+        }
+        Arrays.fill(edgeTable, null);
+
+        int triangleCount = projectedTriangles.size();
+        if (scanlineTriangles.length < triangleCount) {
+            int capacity = Math.max(triangleCount, 2 * scanlineTriangles.length);
+            scanlineTriangles = new Triangle[capacity];
+            depthSlopesX = new double[capacity];
+            depthSlopesY = new double[capacity];
+            rowDepths = new double[capacity];
+            gouraudOrders = new int[3 * capacity];
+            xSlopes = new double[3 * capacity];
+            lumSlopes = new double[3 * capacity];
+        }
+        activeTriangles.ensureCapacity(triangleCount);
+
+        // Edge table -- every edge goes to the bucket of the first scanline crossing it
+        int order = 0;
+        for (int index = 0; index < triangleCount; index++) {
+            Triangle t = projectedTriangles.get(index);
+            Vec3D[] vecs = t.getVecs();
+            scanlineTriangles[index] = t;
+            computeDepthPlane(index, vecs);
+            computeGouraudEdges(index, vecs);
+            for (int i = 0; i < 3; i++) {
+                Edge e = new Edge(t, vecs[i], vecs[(i + 1) % 3]);
+                e.order = order++;
+                e.triangleIndex = index;
+                if (e.yStart > e.yEnd || e.yEnd < 0 || e.yStart >= height) {
+                    // Horizontal edge or not crossing any scanline on the screen
+                    continue;
+                }
+                int bucket = Math.max(e.yStart, 0);
+                e.nextInBucket = edgeTable[bucket];
+                edgeTable[bucket] = e;
+            }
+        }
+        double cameraX = cameraPos.getX();
+        double cameraY = cameraPos.getY();
+        double cameraZ = cameraPos.getZ();
+
+        // Iterate through every scanline
+        int nextBucket = 0;
+        for (int y = 0; y < height; y += step) {
+            // Active edge table -- step x of edges still crossing the scanline, drop the ones that ended
+            int kept = 0;
+            for (Edge e : activeEdges) {
+                if (e.yEnd >= y) {
+                    e.x += e.dxdy * step;
+                    activeEdges.set(kept++, e);
+                }
+            }
+            activeEdges.subList(kept, activeEdges.size()).clear();
+
+            // Edges that crossed each other since the previous scanline are moved back in order (nearly sorted already)
+            for (int i = 1; i < activeEdges.size(); i++) {
+                Edge e = activeEdges.get(i);
+                int j = i - 1;
+                while (j >= 0 && e.isBefore(activeEdges.get(j))) {
+                    activeEdges.set(j + 1, activeEdges.get(j));
+                    j--;
+                }
+                activeEdges.set(j + 1, e);
+            }
+
+            // Insert edges starting at this scanline (or skipped over in scanline proof mode) at their sorted positions
+            for (; nextBucket <= y; nextBucket++) {
+                for (Edge e = edgeTable[nextBucket]; e != null; e = e.nextInBucket) {
+                    if (e.yEnd < y) {
+                        continue;
+                    }
+                    e.x = e.xAt(y);
+                    int j = activeEdges.size();
+                    activeEdges.add(e);
+                    while (j > 0 && e.isBefore(activeEdges.get(j - 1))) {
+                        activeEdges.set(j, activeEdges.get(j - 1));
+                        j--;
+                    }
+                    activeEdges.set(j, e);
+                }
+            }
+
+            // Start from the beginning of each scanline
+            int x = 0;
+            activeTriangles.clear();
+
+            for (Edge ae : activeEdges) {
+                double xIntersection = ae.getX();
+
+                int closest = -1;
+                int activeCount = activeTriangles.size();
+                if (activeCount == 0) {
+                    // No triangles -- draw background
+                    graphics.setColor(Color.BLACK);
+                } else if (activeCount == 1) {
+                    // One triangle -- no overlapping, so draw this triangle
+                    closest = activeTriangles.get(0);
+                } else {
+                    // More than one triangle -- find out which is the closest one and draw only this one
+                    double xMid = (x + xIntersection) / 2;
+                    // Of equally close triangles the one entered first wins, it is also the fallback for undefined depths
+                    int first = -1;
+                    double zClosest = Double.MAX_VALUE;
+                    for (int i = 0; i < activeCount; i++) {
+                        int t = activeTriangles.get(i);
+                        double z = spanDepth(t, xMid, y, cameraX, cameraY, cameraZ);
+                        if (z < zClosest || z == zClosest && closest >= 0
+                                && activeTriangles.getSequence(t) < activeTriangles.getSequence(closest)) {
+                            closest = t;
+                            zClosest = z;
+                        }
+                        if (first < 0 || activeTriangles.getSequence(t) < activeTriangles.getSequence(first)) {
+                            first = t;
+                        }
+                    }
+                    if (closest < 0) {
+                        closest = first;
+                    }
+                }
+
+                if (closest < 0) {
+                    // Draw a section between intersection points
+                    graphics.drawLine(x, y, (int) xIntersection, y);
+                } else if (scanlineTriangles[closest].hasColor()) {
+                    Triangle closestTri = scanlineTriangles[closest];
+                    graphics.setColor(new Color(closestTri.getR(), closestTri.getG(), closestTri.getB()));
+                    graphics.drawLine(x, y, (int) xIntersection, y);
+                } else {
+                    drawGouraudSpan(graphics, closest, x, xIntersection, y);
+                }
+                x = (int) xIntersection;
+
+                // Update section info -- going inside or outside the triangle
+                if (activeTriangles.toggle(ae.triangleIndex)) {
+                    // Inside, its depth along the scanline only changes with x from now on
+                    rowDepths[ae.triangleIndex] = rowDepth(ae.triangleIndex, y);
+                }
+            }
+        }
+    }
+
+    // z = z1 + dz/dy * (y - y1) + dz/dx * (x - x1), with the first vertex (x1, y1, z1) as the origin
+    private void computeDepthPlane(int index, Vec3D[] vecs) {
+        double x1 = vecs[0].getX();
+        double x2 = vecs[1].getX();
+        double x3 = vecs[2].getX();
+        double y1 = vecs[0].getY();
+        double y2 = vecs[1].getY();
+        double y3 = vecs[2].getY();
+        double z1 = vecs[0].getZ();
+        double z2 = vecs[1].getZ();
+        double z3 = vecs[2].getZ();
+        double denominator = (x2 - x1) * (y3 - y1) - (x3 - x1) * (y2 - y1);
+        depthSlopesY[index] = ((x2 - x1) * (z3 - z1) - (x3 - x1) * (z2 - z1)) / denominator;
+        depthSlopesX[index] = -(((y2 - y1) * (z3 - z1) - (y3 - y1) * (z2 - z1)) / denominator);
+    }
+
+    private double rowDepth(int index, int y) {
+        Vec3D first = scanlineTriangles[index].getVecs()[0];
+        return first.getZ() + depthSlopesY[index] * (y - first.getY());
+    }
+
+    // Depth the closest triangle of a span is chosen by: z at the middle of the span less its distance from the camera
+    private double spanDepth(int index, double xMid, int y, double cameraX, double cameraY, double cameraZ) {
+        double z = rowDepths[index] + depthSlopesX[index] * (xMid - scanlineTriangles[index].getVecs()[0].getX());
+        double dx = xMid - cameraX;
+        double dy = y - cameraY;
+        double dz = z - cameraZ;
+        return z - Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // The scanline through the middle vertex (in y) splits the triangle into two parts, each with a vertex from
+    // which both edges crossing the scanlines of the part start: the top vertex in the upper part, the bottom one
+    // in the lower part. The x and the luminance of the edges are stepped along y from that vertex
+    private void computeGouraudEdges(int index, Vec3D[] vecs) {
+        int top = 0;
+        int middle = 1;
+        int bottom = 2;
+        if (vecs[middle].getY() < vecs[top].getY()) {
+            top = 1;
+            middle = 0;
+        }
+        if (vecs[bottom].getY() < vecs[middle].getY()) {
+            int swap = bottom;
+            bottom = middle;
+            middle = swap;
+        }
+        if (vecs[middle].getY() < vecs[top].getY()) {
+            int swap = middle;
+            middle = top;
+            top = swap;
+        }
+        gouraudOrders[3 * index] = top;
+        gouraudOrders[3 * index + 1] = middle;
+        gouraudOrders[3 * index + 2] = bottom;
+
+        for (int i = 0; i < 3; i++) {
+            Vec3D p1 = vecs[i];
+            Vec3D p2 = vecs[(i + 1) % 3];
+            // Horizontal edges are never stepped along, a part ends on them
+            double dy = p2.getY() - p1.getY();
+            xSlopes[3 * index + i] = (p2.getX() - p1.getX()) / dy;
+            lumSlopes[3 * index + i] = (p2.getLum() - p1.getLum()) / dy;
+        }
+    }
+
+    // Gouraud shading of the triangle from x to xEnd, interpolated between its two edges crossing the scanline
+    private void drawGouraudSpan(Graphics2D graphics, int index, int x, double xEnd, int y) {
+        // Vertices are shared between triangles and carry their Gouraud luminance
+        Vec3D[] vecs = scanlineTriangles[index].getVecs();
+        // The triangle is only active strictly between its top and bottom scanlines
+        int apex = y <= vecs[gouraudOrders[3 * index + 1]].getY() ? gouraudOrders[3 * index] : gouraudOrders[3 * index + 2];
+        Vec3D a = vecs[apex];
+        double dy = y - a.getY();
+        int edgeD = 3 * index + apex; // Towards the next vertex
+        int edgeF = 3 * index + (apex + 2) % 3; // From the previous vertex
+        double xD = a.getX() + dy * xSlopes[edgeD];
+        double xF = a.getX() + dy * xSlopes[edgeF];
+        double lumD = a.getLum() + dy * lumSlopes[edgeD]; // I_D
+        double lumF = a.getLum() + dy * lumSlopes[edgeF];
+        if (xD > xF) {
+            double swap = xD;
+            xD = xF;
+            xF = swap;
+            swap = lumD;
+            lumD = lumF;
+            lumF = swap;
+        }
+
+        double lumPerX = (lumF - lumD) / (xF - xD);
+        double lumX = x == (int) xD ? lumD : lumD + (x - xD) * lumPerX;
+        double lumXEnd = (int) xEnd == (int) xF ? lumF : lumD + (xEnd - xD) * lumPerX;
+        drawGradientLine(graphics, (int) (lumX * 255), (int) (lumXEnd * 255), x, (int) xEnd, y, y);
+    }
+
+    private void drawGradientLine(Graphics2D g2d, int startLum, int endLum, int startX, int endX, int startY, int endY) {
+        if (startLum < 0 || startLum > 255) {
+            startLum = 0;
+        }
+        if (endLum < 0 || endLum > 255) {
+            endLum = 0;
+        }
+
+        Color startColor = new Color(startLum, startLum, startLum);
+        Color endColor = new Color(endLum, endLum, endLum);
+
+        GradientPaint gradient = new GradientPaint(startX, startY, startColor, endX, endY, endColor);
+        g2d.setPaint(gradient);
+
+        g2d.drawLine(startX, startY, endX, endY);
+    }
+
+    // Projects the meshes of the scene into the back frame and publishes it as the front frame
+    public void update(double angle) {
+        // The settings are read once, so that the whole frame uses the same ones. A toggle sets the flag after the
+        // setting it changes, so taking the flag first sees the new setting
+        boolean rotationChanged = sceneRotationChanged.getAndSet(false);
+        boolean rotX = rotXactive;
+        boolean rotY = rotYactive;
+        boolean rotZ = rotZactive;
+        boolean lod = lodActive;
+
+        // The scene's transform only changes while it is spinning
+        if (rotX || rotY || rotZ || rotationChanged) {
+            Matrix.makeRotationX(angle, matrixRotX);
+            Matrix.makeRotationY(angle, matrixRotY);
+            Matrix.makeRotationZ(angle, matrixRotZ);
+
+            Matrix.makeTranslation(0.0, 0.0, 3.0, matrixTranslation); // Optionally move whole scene
+
+            Matrix worldMatrix = Matrix.makeIdentity(worldMatrixA);
+            if (rotX) {
+                worldMatrix = multWorldMatrix(worldMatrix, matrixRotX);
+            }
+            if (rotY) {
+                worldMatrix = multWorldMatrix(worldMatrix, matrixRotY);
+            }
+            if (rotZ) {
+                worldMatrix = multWorldMatrix(worldMatrix, matrixRotZ);
+            }
+            worldMatrix = multWorldMatrix(worldMatrix, matrixTranslation);
+            scene.setLocalMatrix(worldMatrix);
+        }
+        updatedSceneNodes = scene.updateWorldMatrices();
+        meshNodes.clear();
+        scene.collectMeshNodes(meshNodes);
+        occlusionBuffer.clear();
+        // A single mesh has nothing to hide
+        boolean occlusionCulling = occlusionCullingActive && meshNodes.size() > 1;
+        if (occlusionCulling) {
+            sortFrontToBack();
+        }
+
+        camera.makeViewMatrix(viewMatrix);
+        Matrix.makeProjection(camera.getFov(), (double) height / width, 0.1, 1000, projectionMatrix);
+
+        Vec3D[] vecs;
+        int projectedCount = 0;
+        int clippedCount = 0;
+        int vertexBase = 0;
+        visitedBvhNodes = 0;
+        culledTriangles = 0;
+        transformedVertices = 0;
+        submittedTriangles = 0;
+
+        ProjectedFrame frame = backFrame;
+        frame.getCameraPosition().set(camera.getPosition());
+        List<Triangle> projectedTriangles = frame.getTriangles();
+        projectedTriangles.clear();
+        for (int n = 0; n < meshNodes.size(); n++) {
+            SceneNode node = meshNodes.get(n);
+
+            // The world matrix only rotates and translates, so back-face culling and lighting give the same results in
+            // object space -- it is enough to bring the camera and the light source there instead of every vertex to
+            // world space
+            Vec3D.multMatrixVector(node.getInverseWorldMatrix(), camera.getPosition(), cameraPosition);
+            Vec3D.multMatrixVector(node.getInverseWorldMatrix(), LIGHT_SOURCE_POS, lightSourcePos);
+
+            double projectedSize = projectedSize(node.getMesh());
+            Mesh mesh = selectLod(node.getMesh(), projectedSize, lod);
+            submittedTriangles += mesh.getTriangleCount();
+            int[] indices = mesh.getIndices();
+            int[] colors = mesh.getColors();
+
+            // Vertices go from object space straight to screen space through a single matrix
+            Matrix.mult(node.getWorldMatrix(), viewMatrix, projectionMatrix, worldViewProjectionMatrix);
+            Matrix.makeFrustumPlanes(worldViewProjectionMatrix, frustumPlanes);
+
+            // Meshes hidden behind the occluders drawn so far are skipped altogether
+            boolean occlusionTest = occlusionCulling && !occlusionBuffer.isEmpty();
+            if (occlusionTest && isOccluded(mesh)) {
+                culledTriangles += mesh.getTriangleCount();
+                continue;
+            }
+            // The last mesh has nothing behind it to hide
+            boolean occluder = occlusionCulling && n < meshNodes.size() - 1 && projectedSize >= MIN_OCCLUDER_SIZE;
+
+            // Parts of the mesh outside the view volume (or hidden) are skipped altogether
+            findVisibleRanges(mesh, occlusionTest);
+            if (visibleTriangles.getCount() == 0) {
+                continue;
+            }
+
+            // Every vertex is projected once, triangles refer to the results by index
+            transformVertices(mesh, vertexBase);
+
+            visibleTriangles.split(CHUNK_SIZE, triangleChunks);
+            int chunkCount = triangleChunks.getCount();
+            ensureChunkCapacity(chunkCount);
+            int meshVertexBase = vertexBase;
+            forEachChunk(chunkCount, chunk -> cullAndLightTriangles(mesh, meshVertexBase, chunk));
+
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                int[] triangles = chunkTriangles[chunk];
+                double[] luminances = chunkLuminances[chunk];
+                for (int i = 0; i < chunkSizes[chunk]; i++) {
+                    int t = triangles[i];
+                    int v0 = vertexBase + indices[3 * t];
+                    int v1 = vertexBase + indices[3 * t + 1];
+                    int v2 = vertexBase + indices[3 * t + 2];
+                    int planes = outcodes[v0] | outcodes[v1] | outcodes[v2];
+                    if (planes != 0) {
+                        int vertexCount = clipper.clip(clipPositions, indices[3 * t], indices[3 * t + 1], indices[3 * t + 2],
+                                vertexLums[v0], vertexLums[v1], vertexLums[v2], planes);
+
+                        // The clipped polygon is convex, so it is split into a fan of triangles
+                        for (int k = 0; k < vertexCount; k++) {
+                            Vec3D projected = frame.getPooledClippedVertex(clippedCount + k);
+                            toScreen(clipper.getX(k), clipper.getY(k), clipper.getZ(k), clipper.getW(k), projected);
+                            projected.setLum(clipper.getLum(k));
+                        }
+                        for (int k = 1; k + 1 < vertexCount; k++) {
+                            Triangle projectedTriangle = frame.getPooledTriangle(projectedCount);
+                            vecs = projectedTriangle.getVecs();
+                            vecs[0] = frame.getPooledClippedVertex(clippedCount);
+                            vecs[1] = frame.getPooledClippedVertex(clippedCount + k);
+                            vecs[2] = frame.getPooledClippedVertex(clippedCount + k + 1);
+                            projectedTriangle.setLuminance(luminances[i]);
+                            projectedTriangle.setColor(colors[t]);
+                            projectedTriangles.add(projectedTriangle);
+                            projectedCount++;
+                        }
+                        clippedCount += vertexCount;
+                        continue;
+                    }
+
+                    // Clipped triangles are left out of the occlusion buffer, which only needs to be filled conservatively
+                    if (occluder) {
+                        occlusionBuffer.rasterize(projectedVertices[v0], projectedVertices[v1], projectedVertices[v2],
+                                Math.max(clipPositions[4 * indices[3 * t] + 3],
+                                        Math.max(clipPositions[4 * indices[3 * t + 1] + 3], clipPositions[4 * indices[3 * t + 2] + 3])));
+                    }
+
+                    Triangle projectedTriangle = frame.getPooledTriangle(projectedCount);
+                    vecs = projectedTriangle.getVecs();
+                    vecs[0] = projectedVertices[v0];
+                    vecs[1] = projectedVertices[v1];
+                    vecs[2] = projectedVertices[v2];
+                    projectedTriangle.setLuminance(luminances[i]);
+                    projectedTriangle.setColor(colors[t]);
+                    projectedTriangles.add(projectedTriangle);
+                    projectedCount++;
+                }
+            }
+
+            vertexBase += mesh.getVertexCount();
+            //System.out.println("Aktualnie wyświetlanych trójkątów: " + projectedTriangles.size());
+        }
+        occludedNodes = occlusionBuffer.getOccludedCount();
+
+        // Draw triangles from back to front (painter's algorithm)
+        sortBackToFront(projectedTriangles);
+
+        publishFrame();
+    }
+
+    // The centroid depth of every triangle is computed once, then the triangles are put in the order of the sorter
+    private void sortBackToFront(List<Triangle> triangles) {
+        int count = triangles.size();
+        if (depthKeys.length < count) {
+            depthKeys = new float[Math.max(count, 2 * depthKeys.length)];
+            unsortedTriangles = new Triangle[depthKeys.length];
+        }
+        for (int t = 0; t < count; t++) {
+            Triangle triangle = triangles.get(t);
+            Vec3D[] vecs = triangle.getVecs();
+            depthKeys[t] = (float) ((vecs[0].getZ() + vecs[1].getZ() + vecs[2].getZ()) / 3.0);
+            unsortedTriangles[t] = triangle;
+        }
+        int[] order = depthSorter.sort(depthKeys, count);
+        for (int i = 0; i < count; i++) {
+            triangles.set(i, unsortedTriangles[order[i]]);
+        }
+    }
+
+    // Projects all vertices of the mesh into projectedVertices[vertexBase..] and prepares their per-frame lighting data
+    private void transformVertices(Mesh mesh, int vertexBase) {
+        int vertexCount = mesh.getVertexCount();
+        ensureVertexCapacity(vertexBase + vertexCount);
+
+        // The visible vertices of a few BVH leaves form many short ranges, a task transforms a group of them
+        visibleVertices.split(CHUNK_SIZE, vertexPieces);
+        vertexPieces.group(CHUNK_SIZE, vertexChunks);
+        forEachChunk(vertexChunks.getCount(), chunk -> {
+            for (int piece = vertexChunks.getStart(chunk); piece < vertexChunks.getEnd(chunk); piece++) {
+                transformVertices(mesh, vertexBase, vertexPieces.getStart(piece), vertexPieces.getEnd(piece));
+            }
+        });
+    }
+
+    // Diameter in pixels of the mesh's bounding sphere on the screen, infinite with the camera inside it
+    private double projectedSize(Mesh mesh) {
+        Vec3D center = mesh.getBoundingCenter();
+        double dx = cameraPosition.getX() - center.getX();
+        double dy = cameraPosition.getY() - center.getY();
+        double dz = cameraPosition.getZ() - center.getZ();
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double radius = mesh.getBoundingRadius();
+        if (distance <= radius) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        // The projection scales y by 1 / tan(fov / 2) and maps [-1, 1] to the screen height
+        double focalLength = 0.5 * height / Math.tan(0.5 * Math.toRadians(camera.getFov()));
+        return 2.0 * radius * focalLength / distance;
+    }
+
+    // The smaller the mesh's bounding sphere appears on the screen, the coarser the level of detail: every halving of its
+    // projected size below FULL_DETAIL_SIZE moves to the next level with half the triangles
+    private Mesh selectLod(Mesh mesh, double projectedSize, boolean lod) {
+        if (!lod || mesh.getLodCount() == 1) {
+            return mesh;
+        }
+        int level = 0;
+        for (double size = FULL_DETAIL_SIZE; projectedSize < size && level + 1 < mesh.getLodCount(); size /= 2) {
+            level++;
+        }
+        return mesh.getLod(level);
+    }
+
+    // Nearer meshes go first, so that they are in the occlusion buffer before the meshes behind them are tested
+    private void sortFrontToBack() {
+        int count = meshNodes.size();
+        if (nodeOrder.length < count) {
+            nodeOrder = new long[count];
+        }
+        for (int n = 0; n < count; n++) {
+            SceneNode node = meshNodes.get(n);
+            Vec3D.multMatrixVector(node.getWorldMatrix(), node.getMesh().getBoundingCenter(), worldCenter);
+            double dx = worldCenter.getX() - camera.getPosition().getX();
+            double dy = worldCenter.getY() - camera.getPosition().getY();
+            double dz = worldCenter.getZ() - camera.getPosition().getZ();
+            float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            // The bits of non-negative floats compare like the floats
+            nodeOrder[n] = (long) Float.floatToIntBits(distance) << 32 | n;
+        }
+        Arrays.sort(nodeOrder, 0, count);
+
+        sortedMeshNodes.clear();
+        for (int n = 0; n < count; n++) {
+            sortedMeshNodes.add(meshNodes.get((int) nodeOrder[n]));
+        }
+        meshNodes.clear();
+        meshNodes.addAll(sortedMeshNodes);
+    }
+
+    // Tests the box around the mesh's bounding sphere
+    private boolean isOccluded(Mesh mesh) {
+        Vec3D center = mesh.getBoundingCenter();
+        double radius = mesh.getBoundingRadius();
+        return occlusionBuffer.isOccluded(worldViewProjectionMatrix,
+                center.getX() - radius, center.getY() - radius, center.getZ() - radius,
+                center.getX() + radius, center.getY() + radius, center.getZ() + radius);
+    }
+
+    private void findVisibleRanges(Mesh mesh, boolean occlusionTest) {
+        Bvh bvh = mesh.getBvh();
+        if (bvh == null) {
+            visibleTriangles.clear();
+            visibleTriangles.add(0, mesh.getTriangleCount());
+            visibleVertices.clear();
+            visibleVertices.add(0, mesh.getVertexCount());
+            transformedVertices += mesh.getVertexCount();
+            return;
+        }
+        visitedBvhNodes += bvh.cull(frustumPlanes, 6, occlusionTest ? occlusionBuffer : null, worldViewProjectionMatrix,
+                visibleTriangles, visibleVertices);
+        culledTriangles += mesh.getTriangleCount() - visibleTriangles.getTotal();
+        transformedVertices += visibleVertices.getTotal();
+    }
+
+    // Vertices [from, to) of the mesh; different ranges write to different elements of the buffers
+    private void transformVertices(Mesh mesh, int vertexBase, int from, int to) {
+        double[] positions = mesh.getPositions();
+        double[] vertexNormals = mesh.getVertexNormals();
+        Matrix.transformAll(worldViewProjectionMatrix, positions, clipPositions, from, to);
+
+        for (int v = from; v < to; v++) {
+            double x = clipPositions[4 * v];
+            double y = clipPositions[4 * v + 1];
+            double z = clipPositions[4 * v + 2];
+            double w = clipPositions[4 * v + 3];
+
+            // Triangles with a vertex outside the view volume get clipped
+            outcodes[vertexBase + v] = TriangleClipper.outcode(x, y, z, w);
+
+            Vec3D projected = projectedVertices[vertexBase + v];
+            toScreen(x, y, z, w, projected);
+
+            // Unit vector from the vertex towards the light source
+            int l = 3 * (vertexBase + v);
+            double lightX = lightSourcePos.getX() - positions[3 * v];
+            double lightY = lightSourcePos.getY() - positions[3 * v + 1];
+            double lightZ = lightSourcePos.getZ() - positions[3 * v + 2];
+            double length = Math.sqrt(lightX * lightX + lightY * lightY + lightZ * lightZ);
+            if (length < Util.EPS) {
+                throw new IllegalArgumentException("Cannot divide by 0");
+            }
+            lightDirections[l] = lightX / length;
+            lightDirections[l + 1] = lightY / length;
+            lightDirections[l + 2] = lightZ / length;
+
+            // Illumination of the vertex (Gouraud shading) using its smooth normal
+            double dotProduct = vertexNormals[3 * v] * lightDirections[l] + vertexNormals[3 * v + 1] * lightDirections[l + 1] + vertexNormals[3 * v + 2] * lightDirections[l + 2];
+            vertexLums[vertexBase + v] = Math.max(dotProduct, 0.0);
+            projected.setLum(vertexLums[vertexBase + v]);
+        }
+    }
+
+    // Writes the visible triangles of the chunk and their flat luminance to the chunk's buffers
+    private void cullAndLightTriangles(Mesh mesh, int vertexBase, int chunk) {
+        int[] indices = mesh.getIndices();
+        double[] faceNormals = mesh.getFaceNormals();
+        double[] positions = mesh.getPositions();
+        int[] triangles = chunkTriangles[chunk];
+        double[] luminances = chunkLuminances[chunk];
+        int size = 0;
+
+        int to = triangleChunks.getEnd(chunk);
+        for (int t = triangleChunks.getStart(chunk); t < to; t++) {
+            int v0 = vertexBase + indices[3 * t];
+            int v1 = vertexBase + indices[3 * t + 1];
+            int v2 = vertexBase + indices[3 * t + 2];
+
+            // Check if it's a rear wall
+            double normalX = faceNormals[3 * t];
+            double normalY = faceNormals[3 * t + 1];
+            double normalZ = faceNormals[3 * t + 2];
+            int p0 = 3 * indices[3 * t];
+            double cameraRayX = positions[p0] - cameraPosition.getX();
+            double cameraRayY = positions[p0 + 1] - cameraPosition.getY();
+            double cameraRayZ = positions[p0 + 2] - cameraPosition.getZ();
+
+            // How much of the normal projects onto a ray cast from camera to the triangle
+            if (normalX * cameraRayX + normalY * cameraRayY + normalZ * cameraRayZ > 0.0) {
+                // Rear wall -> invisible
+                continue;
+            }
+
+            // All 3 verts outside the same plane -> the whole triangle is invisible
+            if ((outcodes[v0] & outcodes[v1] & outcodes[v2]) != 0) {
+                continue;
+            }
+
+            // Illumination of the whole triangle (flat shading)
+            double luminance = 0.0;
+            for (int i = 0; i < 3; i++) {
+                int l = 3 * (vertexBase + indices[3 * t + i]);
+                double dotProduct = normalX * lightDirections[l] + normalY * lightDirections[l + 1] + normalZ * lightDirections[l + 2];
+                if (dotProduct > 0.0) {
+                    luminance = dotProduct;
+                }
+            }
+
+            triangles[size] = t;
+            luminances[size] = luminance;
+            size++;
+        }
+        chunkSizes[chunk] = size;
+    }
+
+    private void ensureChunkCapacity(int chunkCount) {
+        if (chunkTriangles.length < chunkCount) {
+            int oldCount = chunkTriangles.length;
+            chunkTriangles = Arrays.copyOf(chunkTriangles, chunkCount);
+            chunkLuminances = Arrays.copyOf(chunkLuminances, chunkCount);
+            chunkSizes = new int[chunkCount];
+            for (int chunk = oldCount; chunk < chunkCount; chunk++) {
+                chunkTriangles[chunk] = new int[CHUNK_SIZE];
+                chunkLuminances[chunk] = new double[CHUNK_SIZE];
+            }
+        }
+    }
+
+    private void forEachChunk(int chunkCount, IntConsumer action) {
+        if (chunkCount == 1) {
+            // Not worth handing over to the workers
+            action.accept(0);
+        } else if (chunkCount > 1) {
+            workerPool.invoke(new ChunkRange(0, chunkCount, action));
+        }
+    }
+
+    // Splits the chunks in halves until a single chunk is left for each task
+    private static class ChunkRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        ChunkRange(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ChunkRange(from, mid, action), new ChunkRange(mid, to, action));
+        }
+    }
+
+    // Perspective division, then y is inverted (in SWING y axis is pointing down by default), x and y are offset
+    // from range [-1, 1] to range [0, 2] and scaled to screen size
+    private void toScreen(double x, double y, double z, double w, Vec3D projected) {
+        if (w > Util.EPS) {
+            x /= w;
+            y /= w;
+            z /= w;
+        }
+        projected.set((x + 1.0) * 0.5 * width, (-y + 1.0) * 0.5 * height, z, 1.0);
+    }
+
+    private void ensureVertexCapacity(int vertexCount) {
+        backFrame.ensureVertexCapacity(vertexCount);
+        projectedVertices = backFrame.getVertices();
+        if (vertexLums.length >= vertexCount) {
+            return;
+        }
+        int capacity = projectedVertices.length;
+        clipPositions = new double[4 * capacity];
+        lightDirections = new double[3 * capacity];
+        outcodes = new int[capacity];
+        vertexLums = new double[capacity];
+    }
+
+    // The world matrix is composed by alternating between two preallocated matrices
+    private Matrix multWorldMatrix(Matrix worldMatrix, Matrix m) {
+        Matrix result = worldMatrix == worldMatrixA ? worldMatrixB : worldMatrixA;
+        return Matrix.mult(worldMatrix, m, result);
+    }
+
+    // Waits for the frame being drawn, if any, and swaps it with the just completed back frame
+    private void publishFrame() {
+        synchronized (frameLock) {
+            backFrame.setNumber(frontFrame.getNumber() + 1);
+            ProjectedFrame frame = frontFrame;
+            frontFrame = backFrame;
+            backFrame = frame;
+            frameLock.notifyAll();
+        }
+    }
+
+    // Blocks until a frame newer than frameNumber is published or the timeout passes, returns the newest frame's number
+    public long awaitFrame(long frameNumber, long timeoutMillis) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        synchronized (frameLock) {
+            long remaining = timeoutMillis;
+            while (frontFrame.getNumber() <= frameNumber && remaining > 0) {
+                frameLock.wait(remaining);
+                remaining = timeoutMillis - (System.currentTimeMillis() - start);
+            }
+            return frontFrame.getNumber();
+        }
+    }
+
+    private void drawTriangle(Graphics g, Triangle triangle) {
+        Vec3D[] vecs = triangle.getVecs();
+        g.drawLine((int) vecs[0].getX(), (int) vecs[0].getY(), (int) vecs[1].getX(), (int) vecs[1].getY());
+        g.drawLine((int) vecs[1].getX(), (int) vecs[1].getY(), (int) vecs[2].getX(), (int) vecs[2].getY());
+        g.drawLine((int) vecs[2].getX(), (int) vecs[2].getY(), (int) vecs[0].getX(), (int) vecs[0].getY());
+    }
+
+    private void fillTriangle(Graphics g, Triangle triangle) {
+        Vec3D[] vecs = triangle.getVecs();
+        int[] xPoints = new int[3];
+        int[] yPoints = new int[3];
+
+        for (int i = 0; i < 3; i++) {
+            xPoints[i] = (int) vecs[i].getX();
+            yPoints[i] = (int) vecs[i].getY();
+        }
+
+        // Create a polygon representing the triangle
+        Polygon p = new Polygon(xPoints, yPoints, 3);
+
+        determineColor(g, triangle);
+
+        g.fillPolygon(p);
+    }
+
+    private void determineColor(Graphics g, Triangle triangle) {
+        if (triangle.hasColor()) {
+            g.setColor(new Color(triangle.getR(), triangle.getG(), triangle.getB()));
+        } else {
+            int lum = (int) (255 * triangle.getLuminance());
+            g.setColor(new Color(lum, lum, lum));
+        }
+    }
+
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    public SceneNode getScene() {
+        return scene;
+    }
+
+    // Holds the image and depth of the last frame drawn with the z-buffer
+    public ZBufferRasterizer getZBufferRasterizer() {
+        return zBufferRasterizer;
+    }
+
+    // Triangles of the newest complete frame
+    public List<Triangle> getProjectedTriangles() {
+        synchronized (frameLock) {
+            return frontFrame.getTriangles();
+        }
+    }
+
+    // Frustum culling statistics of the last update
+    public int getVisitedBvhNodes() {
+        return visitedBvhNodes;
+    }
+
+    public int getCulledTriangles() {
+        return culledTriangles;
+    }
+
+    public int getTransformedVertices() {
+        return transformedVertices;
+    }
+
+    // Triangles of the levels of detail drawn in the last update, before culling
+    public int getSubmittedTriangles() {
+        return submittedTriangles;
+    }
+
+    public int getUpdatedSceneNodes() {
+        return updatedSceneNodes;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getDrawingMethod() {
+        return drawingMethod;
+    }
+
+    public void setDrawingMethod(String drawingMethod) {
+        this.drawingMethod = drawingMethod;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be positive");
+        }
+        workerPool.shutdown();
+        this.workerCount = workerCount;
+        workerPool = new ForkJoinPool(workerCount);
+        tiledRasterizer.setPool(workerPool);
+    }
+
+    // Shuts down the worker threads, the renderer cannot be updated or render the tiled z-buffer after that
+    public void stop() {
+        workerPool.shutdown();
+    }
+
+    public void toggleDrawMesh() {
+        drawMesh = !drawMesh;
+    }
+
+    public void toggleScanlineProof() {
+        scanlineProof = !scanlineProof;
+    }
+
+    public int getOccludedNodes() {
+        return occludedNodes;
+    }
+
+    public void toggleOcclusionCulling() {
+        occlusionCullingActive = !occlusionCullingActive;
+    }
+
+    public boolean isOcclusionCullingActive() {
+        return occlusionCullingActive;
+    }
+
+    public void toggleLod() {
+        lodActive = !lodActive;
+    }
+
+    public boolean isLodActive() {
+        return lodActive;
+    }
+
+    public void toggleRotX() {
+        rotXactive = !rotXactive;
+        sceneRotationChanged.set(true);
+    }
+
+    public void toggleRotY() {
+        rotYactive = !rotYactive;
+        sceneRotationChanged.set(true);
+    }
+
+    public void toggleRotZ() {
+        rotZactive = !rotZactive;
+        sceneRotationChanged.set(true);
+    }
+
+    public void setRotYactive(boolean rotYactive) {
+        this.rotYactive = rotYactive;
+        sceneRotationChanged.set(true);
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Node of the scene graph: a transform relative to the parent node and optionally a mesh drawn with it
+// Any number of nodes can share one mesh (instancing). World matrices are cached and recomputed only for the nodes
+// whose transform, or one of whose ancestors' transforms, changed since the last update
+// Transforms may only rotate and translate -- Renderer culls and lights in object space using the quick inverse
+public class SceneNode {
+    private final Mesh mesh; // null for nodes only grouping other nodes
+    private SceneNode parent;
+    private final List<SceneNode> children = new ArrayList<>();
+
+    private final Matrix localMatrix = Matrix.makeIdentity(new Matrix());
+    private final Matrix worldMatrix = Matrix.makeIdentity(new Matrix());
+    private final Matrix inverseWorldMatrix = Matrix.makeIdentity(new Matrix());
+    private boolean dirty = true;
+
+    public SceneNode() {
+        this(null);
+    }
+
+    public SceneNode(Mesh mesh) {
+        this.mesh = mesh;
+    }
+
+    public void addChild(SceneNode child) {
+        if (child.parent != null) {
+            child.parent.removeChild(child);
+        }
+        children.add(child);
+        child.parent = this;
+        child.dirty = true;
+    }
+
+    public void removeChild(SceneNode child) {
+        if (children.remove(child)) {
+            child.parent = null;
+            child.dirty = true;
+        }
+    }
+
+    public void removeAllChildren() {
+        for (SceneNode child : children) {
+            child.parent = null;
+            child.dirty = true;
+        }
+        children.clear();
+    }
+
+    // Recomputes the world matrices of the changed nodes of the subtree, returns the number of nodes recomputed
+    public int updateWorldMatrices() {
+        return updateWorldMatrices(parent != null && parent.dirty);
+    }
+
+    private int updateWorldMatrices(boolean parentChanged) {
+        int updated = 0;
+        boolean changed = dirty || parentChanged;
+        if (changed) {
+            // Row vectors: the local transform is applied first, then the parent's
+            if (parent == null) {
+                System.arraycopy(localMatrix.getData(), 0, worldMatrix.getData(), 0, 16);
+            } else {
+                Matrix.mult(localMatrix, parent.worldMatrix, worldMatrix);
+            }
+            Matrix.quickInverse(worldMatrix, inverseWorldMatrix);
+            dirty = false;
+            updated++;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            updated += children.get(i).updateWorldMatrices(changed);
+        }
+        return updated;
+    }
+
+    // Appends the nodes of the subtree that have a mesh, in depth-first order
+    public void collectMeshNodes(List<SceneNode> meshNodes) {
+        if (mesh != null) {
+            meshNodes.add(this);
+        }
+        for (int i = 0; i < children.size(); i++) {
+            children.get(i).collectMeshNodes(meshNodes);
+        }
+    }
+
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    public SceneNode getParent() {
+        return parent;
+    }
+
+    public List<SceneNode> getChildren() {
+        return children;
+    }
+
+    public Matrix getLocalMatrix() {
+        return localMatrix;
+    }
+
+    public void setLocalMatrix(Matrix m) {
+        System.arraycopy(m.getData(), 0, localMatrix.getData(), 0, 16);
+        dirty = true;
+    }
+
+    public void setTranslation(double x, double y, double z) {
+        Matrix.makeTranslation(x, y, z, localMatrix);
+        dirty = true;
+    }
+
+    // Valid after updateWorldMatrices
+    public Matrix getWorldMatrix() {
+        return worldMatrix;
+    }
+
+    public Matrix getInverseWorldMatrix() {
+        return inverseWorldMatrix;
+    }
+}
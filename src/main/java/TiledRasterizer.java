@@ -0,0 +1,113 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Z-buffer rasterization split into screen tiles drawn in parallel
+// Triangles are binned into the tiles they overlap; every tile owns its part of the color and depth buffers,
+// so the workers never write to the same pixel and need no locking
+public class TiledRasterizer {
+    public static final int TILE_SIZE = 64;
+
+    private final ZBufferRasterizer rasterizer;
+    private final int tilesX;
+    private final int tilesY;
+    private ForkJoinPool pool;
+
+    // Indices of the triangles overlapping every tile, in drawing order
+    private final int[][] bins;
+    private final int[] binSizes;
+    private List<Triangle> triangles;
+
+    public TiledRasterizer(ZBufferRasterizer rasterizer, ForkJoinPool pool) {
+        this.rasterizer = rasterizer;
+        tilesX = (rasterizer.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (rasterizer.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+        bins = new int[tilesX * tilesY][16];
+        binSizes = new int[tilesX * tilesY];
+        this.pool = pool;
+    }
+
+    public void draw(List<Triangle> triangles) {
+        this.triangles = triangles;
+        bin();
+        pool.invoke(new TileRange(0, tilesX * tilesY));
+        this.triangles = null;
+    }
+
+    private void bin() {
+        Arrays.fill(binSizes, 0);
+        int width = rasterizer.getWidth();
+        int height = rasterizer.getHeight();
+
+        for (int t = 0; t < triangles.size(); t++) {
+            Vec3D[] vecs = triangles.get(t).getVecs();
+            double minX = Math.min(vecs[0].getX(), Math.min(vecs[1].getX(), vecs[2].getX()));
+            double maxX = Math.max(vecs[0].getX(), Math.max(vecs[1].getX(), vecs[2].getX()));
+            double minY = Math.min(vecs[0].getY(), Math.min(vecs[1].getY(), vecs[2].getY()));
+            double maxY = Math.max(vecs[0].getY(), Math.max(vecs[1].getY(), vecs[2].getY()));
+            if (maxX < 0 || maxY < 0 || minX >= width || minY >= height) {
+                continue;
+            }
+
+            int tileMinX = (int) Math.max(0, Math.floor(minX)) / TILE_SIZE;
+            int tileMaxX = (int) Math.min(width - 1, Math.ceil(maxX)) / TILE_SIZE;
+            int tileMinY = (int) Math.max(0, Math.floor(minY)) / TILE_SIZE;
+            int tileMaxY = (int) Math.min(height - 1, Math.ceil(maxY)) / TILE_SIZE;
+
+            for (int tileY = tileMinY; tileY <= tileMaxY; tileY++) {
+                for (int tileX = tileMinX; tileX <= tileMaxX; tileX++) {
+                    int tile = tileY * tilesX + tileX;
+                    if (binSizes[tile] == bins[tile].length) {
+                        bins[tile] = Arrays.copyOf(bins[tile], 2 * bins[tile].length);
+                    }
+                    bins[tile][binSizes[tile]++] = t;
+                }
+            }
+        }
+    }
+
+    private void drawTile(int tile) {
+        int minX = (tile % tilesX) * TILE_SIZE;
+        int minY = (tile / tilesX) * TILE_SIZE;
+        int maxX = Math.min(minX + TILE_SIZE, rasterizer.getWidth());
+        int maxY = Math.min(minY + TILE_SIZE, rasterizer.getHeight());
+
+        rasterizer.clear(minX, minY, maxX, maxY);
+        int[] bin = bins[tile];
+        for (int i = 0; i < binSizes[tile]; i++) {
+            rasterizer.drawTriangle(triangles.get(bin[i]), minX, minY, maxX, maxY);
+        }
+    }
+
+    // Splits the tiles in halves until a single tile is left for each task
+    private class TileRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        TileRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                drawTile(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TileRange(from, mid), new TileRange(mid, to));
+        }
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
@@ -1,7 +1,7 @@
 public class Triangle {
     private Vec3D[] vecs;
     private double luminance = 0.0;
-    private Integer r, g, b;
+    private int color = Mesh.NO_COLOR; // Packed RGB
 
     public Triangle() {
     }
@@ -22,9 +22,7 @@ public class Triangle {
         }
         clonedTriangle.vecs = clonedVecs;
         clonedTriangle.luminance = luminance;
-        clonedTriangle.r = r;
-        clonedTriangle.g = g;
-        clonedTriangle.b = b;
+        clonedTriangle.color = color;
         return clonedTriangle;
     }
 
@@ -47,34 +45,32 @@ public class Triangle {
         return luminance;
     }
 
-    public Integer getR() {
-        return r;
+    public boolean hasColor() {
+        return color != Mesh.NO_COLOR;
     }
 
-    public void setR(Integer r) {
-        this.r = r;
+    public int getColor() {
+        return color;
     }
 
-    public Integer getG() {
-        return g;
+    public void setColor(int color) {
+        this.color = color;
     }
 
-    public void setG(Integer g) {
-        this.g = g;
+    public int getR() {
+        return color >> 16 & 0xFF;
     }
 
-    public Integer getB() {
-        return b;
+    public int getG() {
+        return color >> 8 & 0xFF;
     }
 
-    public void setB(Integer b) {
-        this.b = b;
+    public int getB() {
+        return color & 0xFF;
     }
 
-    public void setRGB(Integer r, Integer g, Integer b) {
-        this.r = r;
-        this.g = g;
-        this.b = b;
+    public void setRGB(int r, int g, int b) {
+        this.color = Mesh.packColor(r, g, b);
     }
 
     @Override
@@ -0,0 +1,147 @@
+// Sutherland-Hodgman clipping of triangles in homogeneous clip space (before the perspective division)
+// Against the near and far planes (0 <= z <= w, i.e. zNear <= z <= zFar in view space) and the four screen edges
+// (-w <= x, y <= w), so that only the on-screen part of a triangle reaches the rasterizers
+public class TriangleClipper {
+    // Outcode bits -- which planes a vertex lies outside of
+    public static final int LEFT = 1;
+    public static final int RIGHT = 2;
+    public static final int BOTTOM = 4;
+    public static final int TOP = 8;
+    public static final int NEAR = 16;
+    public static final int FAR = 32;
+    private static final int[] PLANES = {NEAR, FAR, LEFT, RIGHT, BOTTOM, TOP};
+
+    // Every plane can add at most one vertex to the polygon
+    private static final int MAX_VERTICES = 3 + PLANES.length;
+    private static final int STRIDE = 5; // x, y, z, w, luminance
+
+    // The polygon is clipped back and forth between two buffers
+    private double[] polygon = new double[STRIDE * MAX_VERTICES];
+    private double[] clipped = new double[STRIDE * MAX_VERTICES];
+    private int vertexCount = 0;
+
+    public static int outcode(double x, double y, double z, double w) {
+        int code = 0;
+        if (x < -w) {
+            code |= LEFT;
+        }
+        if (x > w) {
+            code |= RIGHT;
+        }
+        if (y < -w) {
+            code |= BOTTOM;
+        }
+        if (y > w) {
+            code |= TOP;
+        }
+        if (z < 0.0) {
+            code |= NEAR;
+        }
+        if (z > w) {
+            code |= FAR;
+        }
+        return code;
+    }
+
+    // Clips the triangle (vertices given as indices of x, y, z, w quadruples in clipPositions) against the planes
+    // in planeMask, returns the number of vertices of the resulting convex polygon (0 when nothing is left)
+    public int clip(double[] clipPositions, int v0, int v1, int v2, double lum0, double lum1, double lum2, int planeMask) {
+        vertexCount = 0;
+        addVertex(clipPositions, v0, lum0);
+        addVertex(clipPositions, v1, lum1);
+        addVertex(clipPositions, v2, lum2);
+
+        for (int plane : PLANES) {
+            if ((plane & planeMask) != 0) {
+                clipAgainst(plane);
+                if (vertexCount == 0) {
+                    break;
+                }
+            }
+        }
+        return vertexCount;
+    }
+
+    private void addVertex(double[] clipPositions, int v, double lum) {
+        int i = STRIDE * vertexCount++;
+        polygon[i] = clipPositions[4 * v];
+        polygon[i + 1] = clipPositions[4 * v + 1];
+        polygon[i + 2] = clipPositions[4 * v + 2];
+        polygon[i + 3] = clipPositions[4 * v + 3];
+        polygon[i + 4] = lum;
+    }
+
+    private void clipAgainst(int plane) {
+        int clippedCount = 0;
+        int previous = STRIDE * (vertexCount - 1);
+        double previousDistance = distance(plane, polygon, previous);
+
+        for (int k = 0; k < vertexCount; k++) {
+            int current = STRIDE * k;
+            double currentDistance = distance(plane, polygon, current);
+
+            // The edge crosses the plane -> add the intersection point
+            if ((previousDistance >= 0.0) != (currentDistance >= 0.0)) {
+                double t = previousDistance / (previousDistance - currentDistance);
+                int out = STRIDE * clippedCount++;
+                for (int c = 0; c < STRIDE; c++) {
+                    clipped[out + c] = polygon[previous + c] + t * (polygon[current + c] - polygon[previous + c]);
+                }
+            }
+            if (currentDistance >= 0.0) {
+                System.arraycopy(polygon, current, clipped, STRIDE * clippedCount++, STRIDE);
+            }
+
+            previous = current;
+            previousDistance = currentDistance;
+        }
+
+        double[] swap = polygon;
+        polygon = clipped;
+        clipped = swap;
+        vertexCount = clippedCount;
+    }
+
+    // Signed distance from the plane, non-negative on the visible side
+    private static double distance(int plane, double[] vertices, int i) {
+        double x = vertices[i];
+        double y = vertices[i + 1];
+        double z = vertices[i + 2];
+        double w = vertices[i + 3];
+        switch (plane) {
+            case LEFT:
+                return w + x;
+            case RIGHT:
+                return w - x;
+            case BOTTOM:
+                return w + y;
+            case TOP:
+                return w - y;
+            case NEAR:
+                return z;
+            default:
+                return w - z;
+        }
+    }
+
+    // Coordinates of the k-th vertex of the clipped polygon
+    public double getX(int k) {
+        return polygon[STRIDE * k];
+    }
+
+    public double getY(int k) {
+        return polygon[STRIDE * k + 1];
+    }
+
+    public double getZ(int k) {
+        return polygon[STRIDE * k + 2];
+    }
+
+    public double getW(int k) {
+        return polygon[STRIDE * k + 3];
+    }
+
+    public double getLum(int k) {
+        return polygon[STRIDE * k + 4];
+    }
+}
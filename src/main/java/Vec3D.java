@@ -18,6 +18,18 @@ public class Vec3D {
         this.z = z;
     }
 
+    public Vec3D set(double x, double y, double z, double w) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+        return this;
+    }
+
+    public Vec3D set(Vec3D vec) {
+        return set(vec.x, vec.y, vec.z, vec.w);
+    }
+
     public static Vec3D add(Vec3D vec1, Vec3D vec2) {
         return new Vec3D(
                 vec1.x + vec2.x,
@@ -26,6 +38,17 @@ public class Vec3D {
         );
     }
 
+    // Destination-argument variants below write the same result as their allocating counterparts into dest
+    // (which may be one of the arguments) and return it
+
+    public static Vec3D add(Vec3D vec1, Vec3D vec2, Vec3D dest) {
+        dest.x = vec1.x + vec2.x;
+        dest.y = vec1.y + vec2.y;
+        dest.z = vec1.z + vec2.z;
+        dest.w = 1.0;
+        return dest;
+    }
+
     public static Vec3D subtract(Vec3D vec1, Vec3D vec2) {
         return new Vec3D(
                 vec1.x - vec2.x,
@@ -34,6 +57,14 @@ public class Vec3D {
         );
     }
 
+    public static Vec3D subtract(Vec3D vec1, Vec3D vec2, Vec3D dest) {
+        dest.x = vec1.x - vec2.x;
+        dest.y = vec1.y - vec2.y;
+        dest.z = vec1.z - vec2.z;
+        dest.w = 1.0;
+        return dest;
+    }
+
     public static Vec3D mult(Vec3D vec1, double v) {
         return new Vec3D(
                 vec1.x * v,
@@ -42,6 +73,14 @@ public class Vec3D {
         );
     }
 
+    public static Vec3D mult(Vec3D vec1, double v, Vec3D dest) {
+        dest.x = vec1.x * v;
+        dest.y = vec1.y * v;
+        dest.z = vec1.z * v;
+        dest.w = 1.0;
+        return dest;
+    }
+
     public static Vec3D divide(Vec3D vec1, double v) {
         if (v < Util.EPS) {
             throw new IllegalArgumentException("Cannot divide by 0");
@@ -53,6 +92,17 @@ public class Vec3D {
         );
     }
 
+    public static Vec3D divide(Vec3D vec1, double v, Vec3D dest) {
+        if (v < Util.EPS) {
+            throw new IllegalArgumentException("Cannot divide by 0");
+        }
+        dest.x = vec1.x / v;
+        dest.y = vec1.y / v;
+        dest.z = vec1.z / v;
+        dest.w = 1.0;
+        return dest;
+    }
+
     public static double dotProduct(Vec3D vec1, Vec3D vec2) {
         return vec1.x * vec2.x + vec1.y * vec2.y + vec1.z * vec2.z;
     }
@@ -66,6 +116,11 @@ public class Vec3D {
         return Vec3D.divide(vec, length);
     }
 
+    public static Vec3D normalise(Vec3D vec, Vec3D dest) {
+        double length = length(vec);
+        return Vec3D.divide(vec, length, dest);
+    }
+
     public static Vec3D crossProduct(Vec3D vec1, Vec3D vec2) {
         Vec3D crossProduct = new Vec3D();
         crossProduct.x = vec1.y * vec2.z - vec1.z * vec2.y;
@@ -74,13 +129,24 @@ public class Vec3D {
         return crossProduct;
     }
 
+    public static Vec3D crossProduct(Vec3D vec1, Vec3D vec2, Vec3D dest) {
+        double x = vec1.y * vec2.z - vec1.z * vec2.y;
+        double y = vec1.z * vec2.x - vec1.x * vec2.z;
+        double z = vec1.x * vec2.y - vec1.y * vec2.x;
+        return dest.set(x, y, z, 1.0);
+    }
+
     public static Vec3D multMatrixVector(Matrix m, Vec3D v) {
-        Vec3D result = new Vec3D();
-        result.x = v.x * m.get(0, 0) + v.y * m.get(1, 0) + v.z * m.get(2, 0) + v.w * m.get(3, 0);
-        result.y = v.x * m.get(0, 1) + v.y * m.get(1, 1) + v.z * m.get(2, 1) + v.w * m.get(3, 1);
-        result.z = v.x * m.get(0, 2) + v.y * m.get(1, 2) + v.z * m.get(2, 2) + v.w * m.get(3, 2);
-        result.w = v.x * m.get(0, 3) + v.y * m.get(1, 3) + v.z * m.get(2, 3) + v.w * m.get(3, 3);
-        return result;
+        return multMatrixVector(m, v, new Vec3D());
+    }
+
+    public static Vec3D multMatrixVector(Matrix m, Vec3D v, Vec3D dest) {
+        double[] d = m.getData();
+        double x = v.x * d[0] + v.y * d[4] + v.z * d[8] + v.w * d[12];
+        double y = v.x * d[1] + v.y * d[5] + v.z * d[9] + v.w * d[13];
+        double z = v.x * d[2] + v.y * d[6] + v.z * d[10] + v.w * d[14];
+        double w = v.x * d[3] + v.y * d[7] + v.z * d[11] + v.w * d[15];
+        return dest.set(x, y, z, w);
     }
 
     public double getX() {
@@ -0,0 +1,117 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+// Software rasterizer with a depth buffer, writing Gouraud-shaded pixels directly into the image's int[] pixel array
+public class ZBufferRasterizer {
+    private final int width;
+    private final int height;
+    private final BufferedImage image;
+    private final int[] pixels; // RGB of every pixel, row by row
+    private final float[] depthBuffer; // Projected z of the closest triangle drawn at every pixel
+
+    public ZBufferRasterizer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        depthBuffer = new float[width * height];
+    }
+
+    public void clear() {
+        Arrays.fill(pixels, 0);
+        Arrays.fill(depthBuffer, Float.POSITIVE_INFINITY);
+    }
+
+    // Clears only the rectangle [minX, maxX) x [minY, maxY)
+    public void clear(int minX, int minY, int maxX, int maxY) {
+        for (int y = minY; y < maxY; y++) {
+            Arrays.fill(pixels, y * width + minX, y * width + maxX, 0);
+            Arrays.fill(depthBuffer, y * width + minX, y * width + maxX, Float.POSITIVE_INFINITY);
+        }
+    }
+
+    public void drawTriangle(Triangle triangle) {
+        drawTriangle(triangle, 0, 0, width, height);
+    }
+
+    // Draws only the pixels inside the clipping rectangle [clipMinX, clipMaxX) x [clipMinY, clipMaxY)
+    public void drawTriangle(Triangle triangle, int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        Vec3D[] vecs = triangle.getVecs();
+        double x0 = vecs[0].getX(), y0 = vecs[0].getY();
+        double x1 = vecs[1].getX(), y1 = vecs[1].getY();
+        double x2 = vecs[2].getX(), y2 = vecs[2].getY();
+
+        double area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+        if (Math.abs(area) < Util.EPS) {
+            return;
+        }
+
+        // Bounding box of the triangle limited to the clipping rectangle
+        int minX = (int) Math.max(clipMinX, Math.floor(Math.min(x0, Math.min(x1, x2))));
+        int maxX = (int) Math.min(clipMaxX - 1, Math.ceil(Math.max(x0, Math.max(x1, x2))));
+        int minY = (int) Math.max(clipMinY, Math.floor(Math.min(y0, Math.min(y1, y2))));
+        int maxY = (int) Math.min(clipMaxY - 1, Math.ceil(Math.max(y0, Math.max(y1, y2))));
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        // Barycentric coordinates are edge functions divided by the area, so they change linearly along a row
+        double invArea = 1.0 / area;
+        double l0dx = -(y2 - y1) * invArea;
+        double l1dx = -(y0 - y2) * invArea;
+        double l2dx = -(y1 - y0) * invArea;
+
+        double z0 = vecs[0].getZ(), z1 = vecs[1].getZ(), z2 = vecs[2].getZ();
+        double lum0 = vecs[0].getLum(), lum1 = vecs[1].getLum(), lum2 = vecs[2].getLum();
+        boolean flatColor = triangle.hasColor();
+        int color = triangle.getColor();
+
+        for (int y = minY; y <= maxY; y++) {
+            // Sample at pixel centers
+            double py = y + 0.5;
+            double px = minX + 0.5;
+            double l0 = ((x2 - x1) * (py - y1) - (y2 - y1) * (px - x1)) * invArea;
+            double l1 = ((x0 - x2) * (py - y2) - (y0 - y2) * (px - x2)) * invArea;
+            double l2 = ((x1 - x0) * (py - y0) - (y1 - y0) * (px - x0)) * invArea;
+
+            int i = y * width + minX;
+            for (int x = minX; x <= maxX; x++, i++, l0 += l0dx, l1 += l1dx, l2 += l2dx) {
+                if (l0 < 0.0 || l1 < 0.0 || l2 < 0.0) {
+                    continue;
+                }
+
+                float z = (float) (l0 * z0 + l1 * z1 + l2 * z2);
+                if (z >= depthBuffer[i]) {
+                    continue;
+                }
+                depthBuffer[i] = z;
+
+                if (flatColor) {
+                    pixels[i] = color;
+                } else {
+                    int lum = (int) ((l0 * lum0 + l1 * lum1 + l2 * lum2) * 255);
+                    lum = Math.max(0, Math.min(255, lum));
+                    pixels[i] = lum << 16 | lum << 8 | lum;
+                }
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    // +infinity where nothing is drawn
+    public float[] getDepthBuffer() {
+        return depthBuffer;
+    }
+}